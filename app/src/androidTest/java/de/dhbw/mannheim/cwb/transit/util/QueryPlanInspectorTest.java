@@ -0,0 +1,62 @@
+package de.dhbw.mannheim.cwb.transit.util;
+
+import androidx.room.Room;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.Map;
+
+import de.dhbw.mannheim.cwb.transit.pojo.JourneyDatabase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Explains the queries of all DAOs against the schema generated by Room, so that a query on a
+ * column without an index is noticed before it slows down the app
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryPlanInspectorTest {
+
+    private JourneyDatabase database;
+
+    @Before
+    public void open() {
+        database = Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getInstrumentation().getTargetContext(),
+                JourneyDatabase.class).build();
+    }
+
+    @After
+    public void close() {
+        database.close();
+    }
+
+    @Test
+    public void noQueryScansWholeTable() {
+        SupportSQLiteDatabase db = database.getOpenHelper().getWritableDatabase();
+
+        Map<String, List<String>> scans = QueryPlanInspector.findTableScans(db);
+        assertTrue("Queries scan whole tables: " + scans, scans.isEmpty());
+    }
+
+    @Test
+    public void everyQueryIsExplained() {
+        SupportSQLiteDatabase db = database.getOpenHelper().getWritableDatabase();
+
+        List<String> queries = QueryPlanInspector.getQueries();
+        Map<String, List<String>> plans = QueryPlanInspector.explain(db, queries);
+        assertEquals(queries.size(), plans.size());
+        for (Map.Entry<String, List<String>> plan : plans.entrySet()) {
+            assertFalse("No plan for " + plan.getKey(), plan.getValue().isEmpty());
+        }
+    }
+
+}
@@ -0,0 +1,136 @@
+package de.dhbw.mannheim.cwb.transit.util;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import de.dhbw.mannheim.cwb.transit.pojo.JourneyDatabase;
+import de.dhbw.mannheim.cwb.transit.pojo.Leg;
+import de.dhbw.mannheim.cwb.transit.pojo.LegList;
+import de.dhbw.mannheim.cwb.transit.pojo.Stop;
+import de.dhbw.mannheim.cwb.transit.pojo.Trip;
+import de.dhbw.mannheim.cwb.transit.pojo.TripData;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes the trips that are searched in the background into an in-memory database and reports
+ * the write throughput of a single transaction compared to one transaction per TripData object
+ */
+@RunWith(AndroidJUnit4.class)
+public class TripDataDAOTest {
+
+    private static final int JOURNEYS = 1000;
+
+    private JourneyDatabase database;
+    private TripDataDAO dao;
+
+    @Before
+    public void open() {
+        database = Room.inMemoryDatabaseBuilder(InstrumentationRegistry.getInstrumentation().getTargetContext(),
+                JourneyDatabase.class).build();
+        dao = database.tripDataDAO();
+    }
+
+    @After
+    public void close() {
+        database.close();
+    }
+
+    @Test
+    public void batchWritesAllJourneys() {
+        List<TripData> journeys = createJourneys(0);
+
+        long start = System.nanoTime();
+        long[] ids = dao.replacePrefetched(journeys);
+        long batchNanos = System.nanoTime() - start;
+
+        assertEquals(JOURNEYS, ids.length);
+        for (long id : ids) assertNotEquals(-1, id);
+        assertEquals(1, dao.loadTripDataByEventId(JOURNEYS - 1).size());
+        assertTrue(dao.loadTripDataByEventId(0).get(0).isPrefetched());
+
+        start = System.nanoTime();
+        for (TripData tripData : createJourneys(JOURNEYS)) dao.replacePrefetched(tripData);
+        long singleNanos = System.nanoTime() - start;
+
+        System.out.println("Wrote " + JOURNEYS + " journeys in one transaction at " + perSecond(batchNanos)
+                + " journeys/s and one transaction each at " + perSecond(singleNanos) + " journeys/s");
+    }
+
+    @Test
+    public void batchSkipsDismissedInstances() {
+        TripData dismissed = createJourneys(0).get(0);
+        dao.remove(dao.loadTripDataById(dao.replacePrefetched(dismissed)));
+
+        List<TripData> journeys = new ArrayList<>();
+        journeys.add(createJourneys(0).get(0));
+        journeys.add(createJourneys(1).get(0));
+
+        long[] ids = dao.replacePrefetched(journeys);
+        assertEquals(-1, ids[0]);
+        assertNotEquals(-1, ids[1]);
+    }
+
+    private static long perSecond(long nanos) {
+        return JOURNEYS * TimeUnit.SECONDS.toNanos(1) / Math.max(1, nanos);
+    }
+
+    /**
+     * Creates one TripData object per event, each with two trips of two legs
+     */
+    private static List<TripData> createJourneys(long firstEventId) {
+        List<TripData> journeys = new ArrayList<>(JOURNEYS);
+        for (int i = 0; i < JOURNEYS; i++) {
+            TripData tripData = new TripData();
+            tripData.setEventId(firstEventId + i);
+            tripData.setInstanceTime(TimeUnit.DAYS.toMillis(20000));
+            tripData.setDataSource(RmvTransitProvider.NAME);
+            tripData.setTrips(new Trip[]{createTrip(i, 8), createTrip(i, 9)});
+            journeys.add(tripData);
+        }
+        return journeys;
+    }
+
+    private static Trip createTrip(int index, int hour) {
+        Leg[] legs = new Leg[2];
+        for (int i = 0; i < legs.length; i++) {
+            Leg leg = new Leg();
+            leg.setName("Bus " + (index % 100));
+            leg.setType("JNY");
+            leg.setOrigin(createStop("A" + i, hour, i * 20));
+            leg.setDestination(createStop("B" + i, hour, i * 20 + 15));
+            legs[i] = leg;
+        }
+
+        LegList legList = new LegList();
+        legList.setLegs(legs);
+
+        Trip trip = new Trip();
+        trip.setLeglist(legList);
+        return trip;
+    }
+
+    private static Stop createStop(String extId, int hour, int minute) {
+        Stop stop = new Stop();
+        stop.setName("Stop " + extId);
+        stop.setExtId(extId);
+        stop.setLat(49.47);
+        stop.setLon(8.53);
+        stop.setDate("2024-10-01");
+        stop.setTime(String.format("%02d:%02d:00", hour, minute));
+        return stop;
+    }
+
+}
@@ -8,6 +8,9 @@ import android.os.Bundle
 import androidx.core.app.ActivityCompat
 import androidx.fragment.app.FragmentActivity
 import de.dhbw.mannheim.cwb.databinding.MainActivityBinding
+import de.dhbw.mannheim.cwb.transit.util.GtfsTransitProvider
+import de.dhbw.mannheim.cwb.transit.util.JourneyDatabaseProvider
+import de.dhbw.mannheim.cwb.transit.util.RoutePrecomputeWorker
 import de.dhbw.mannheim.cwb.view.calendar.CalendarActivity
 import de.dhbw.mannheim.cwb.view.main.MainFragment
 import de.dhbw.mannheim.cwb.view.settings.SettingsActivity
@@ -22,6 +25,11 @@ class MainActivity : FragmentActivity() {
 
         binding = MainActivityBinding.inflate(layoutInflater)
 
+        // open (and if necessary migrate) the journey database before it is needed by a view
+        JourneyDatabaseProvider.open(this)
+        RoutePrecomputeWorker.schedule(this)
+        GtfsTransitProvider.registerIfAvailable(this)
+
         binding.topAppBar.setOnMenuItemClickListener { item ->
             when (item.itemId) {
                 R.id.calendar_button -> {
@@ -0,0 +1,154 @@
+package de.dhbw.mannheim.cwb.transit.pojo;
+
+import android.location.Address;
+
+import androidx.annotation.NonNull;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+import java.util.Locale;
+
+/**
+ * A cached result of the platform geocoder. Entries that did not lead to an address are stored
+ * as well, so that unknown addresses are not queried over and over again.
+ */
+@Entity(tableName = "geocode", indices = {@Index("fetchedAt")})
+public class GeocodeEntry {
+
+    @PrimaryKey
+    @NonNull
+    private final String key;
+
+    private final boolean found;
+    private final double latitude;
+    private final double longitude;
+
+    private final String featureName;
+    private final String thoroughfare;
+    private final String subThoroughfare;
+    private final String locality;
+    private final String postalCode;
+    private final String subAdminArea;
+    private final String adminArea;
+    private final String countryName;
+    private final String countryCode;
+
+    private final long fetchedAt;
+
+    public GeocodeEntry(@NonNull String key, boolean found, double latitude, double longitude, String featureName, String thoroughfare, String subThoroughfare, String locality, String postalCode, String subAdminArea, String adminArea, String countryName, String countryCode, long fetchedAt) {
+        this.key = key;
+        this.found = found;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.featureName = featureName;
+        this.thoroughfare = thoroughfare;
+        this.subThoroughfare = subThoroughfare;
+        this.locality = locality;
+        this.postalCode = postalCode;
+        this.subAdminArea = subAdminArea;
+        this.adminArea = adminArea;
+        this.countryName = countryName;
+        this.countryCode = countryCode;
+        this.fetchedAt = fetchedAt;
+    }
+
+    /**
+     * Creates an entry from the result of the geocoder
+     *
+     * @param key       the key the result should be stored under
+     * @param address   the address found or null if no matching address exists
+     * @param fetchedAt the time in milliseconds at which the geocoder has been queried
+     * @return the new entry
+     */
+    public static GeocodeEntry of(@NonNull String key, Address address, long fetchedAt) {
+        if (address == null) {
+            return new GeocodeEntry(key, false, 0, 0, null, null, null, null, null, null, null, null, null, fetchedAt);
+        }
+
+        return new GeocodeEntry(key, address.hasLatitude() && address.hasLongitude(),
+                address.hasLatitude() ? address.getLatitude() : 0, address.hasLongitude() ? address.getLongitude() : 0,
+                address.getFeatureName(), address.getThoroughfare(), address.getSubThoroughfare(), address.getLocality(),
+                address.getPostalCode(), address.getSubAdminArea(), address.getAdminArea(), address.getCountryName(),
+                address.getCountryCode(), fetchedAt);
+    }
+
+    /**
+     * @return a new Address object containing the cached details or null if the geocoder did not
+     * find an address
+     */
+    public Address toAddress() {
+        if (!found) return null;
+
+        Address address = new Address(Locale.getDefault());
+        address.setLatitude(latitude);
+        address.setLongitude(longitude);
+        address.setFeatureName(featureName);
+        address.setThoroughfare(thoroughfare);
+        address.setSubThoroughfare(subThoroughfare);
+        address.setLocality(locality);
+        address.setPostalCode(postalCode);
+        address.setSubAdminArea(subAdminArea);
+        address.setAdminArea(adminArea);
+        address.setCountryName(countryName);
+        address.setCountryCode(countryCode);
+        return address;
+    }
+
+    @NonNull
+    public String getKey() {
+        return key;
+    }
+
+    public boolean isFound() {
+        return found;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public String getFeatureName() {
+        return featureName;
+    }
+
+    public String getThoroughfare() {
+        return thoroughfare;
+    }
+
+    public String getSubThoroughfare() {
+        return subThoroughfare;
+    }
+
+    public String getLocality() {
+        return locality;
+    }
+
+    public String getPostalCode() {
+        return postalCode;
+    }
+
+    public String getSubAdminArea() {
+        return subAdminArea;
+    }
+
+    public String getAdminArea() {
+        return adminArea;
+    }
+
+    public String getCountryName() {
+        return countryName;
+    }
+
+    public String getCountryCode() {
+        return countryCode;
+    }
+
+    public long getFetchedAt() {
+        return fetchedAt;
+    }
+}
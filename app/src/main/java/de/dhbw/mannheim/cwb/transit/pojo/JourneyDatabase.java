@@ -1,14 +1,220 @@
 package de.dhbw.mannheim.cwb.transit.pojo;
 
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.annotation.NonNull;
 import androidx.room.Database;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+import java.io.IOException;
 
+import de.dhbw.mannheim.cwb.transit.util.GeocodeDAO;
+import de.dhbw.mannheim.cwb.transit.util.TripCodec;
 import de.dhbw.mannheim.cwb.transit.util.TripDataDAO;
+import de.dhbw.mannheim.cwb.util.JsonMapping;
 
 /**
  * @author Lukas Rothenbach
  */
-@Database(entities = {TripData.class}, version = 1, exportSchema = false)
+@Database(entities = {TripData.class, TripEntry.class, LegEntry.class, StopEntry.class, GeocodeEntry.class, PrefetchDismissal.class}, version = 7, exportSchema = false)
 public abstract class JourneyDatabase extends RoomDatabase {
     public abstract TripDataDAO tripDataDAO();
+
+    public abstract GeocodeDAO geocodeDAO();
+
+    /**
+     * Adds the table for the geocoder results
+     */
+    public static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `geocode` (`key` TEXT NOT NULL, `found` INTEGER NOT NULL, "
+                    + "`latitude` REAL NOT NULL, `longitude` REAL NOT NULL, `featureName` TEXT, `thoroughfare` TEXT, "
+                    + "`subThoroughfare` TEXT, `locality` TEXT, `postalCode` TEXT, `subAdminArea` TEXT, `adminArea` TEXT, "
+                    + "`countryName` TEXT, `countryCode` TEXT, `fetchedAt` INTEGER NOT NULL, PRIMARY KEY(`key`))");
+        }
+    };
+
+    /**
+     * Converts the trips of all rows from JSON into the binary format of the TripCodec. SQLite
+     * can't change the type of a column, so the table is copied.
+     */
+    public static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `TripData_new` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`eventId` INTEGER NOT NULL, `dataSource` TEXT, `trips` BLOB)");
+
+            try (Cursor cursor = database.query("SELECT `id`, `eventId`, `dataSource`, `trips` FROM `TripData`")) {
+                while (cursor.moveToNext()) {
+                    ContentValues values = new ContentValues();
+                    values.put("id", cursor.getLong(0));
+                    values.put("eventId", cursor.getLong(1));
+                    values.put("dataSource", cursor.getString(2));
+
+                    byte[] trips = null;
+                    if (!cursor.isNull(3)) {
+                        try {
+                            trips = TripCodec.encode(JsonMapping.TRIPS_READER.readValue(cursor.getString(3)));
+                        } catch (IOException e) {
+                            // the trip is kept without its connections instead of failing the migration
+                            e.printStackTrace();
+                        }
+                    }
+                    values.put("trips", trips);
+
+                    database.insert("TripData_new", SQLiteDatabase.CONFLICT_REPLACE, values);
+                }
+            }
+
+            database.execSQL("DROP TABLE `TripData`");
+            database.execSQL("ALTER TABLE `TripData_new` RENAME TO `TripData`");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_TripData_eventId` ON `TripData` (`eventId`)");
+        }
+    };
+
+    /**
+     * Adds the trip, leg and stop tables and fills them with the trips of the stored TripData objects
+     */
+    public static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `trip` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`tripDataId` INTEGER NOT NULL, `eventId` INTEGER NOT NULL, `position` INTEGER NOT NULL, "
+                    + "`departure` INTEGER NOT NULL, `arrival` INTEGER NOT NULL, FOREIGN KEY(`tripDataId`) "
+                    + "REFERENCES `TripData`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_trip_tripDataId` ON `trip` (`tripDataId`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_trip_eventId` ON `trip` (`eventId`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_trip_departure` ON `trip` (`departure`)");
+
+            database.execSQL("CREATE TABLE IF NOT EXISTS `leg` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`tripId` INTEGER NOT NULL, `position` INTEGER NOT NULL, `name` TEXT, `category` TEXT, `type` TEXT, "
+                    + "FOREIGN KEY(`tripId`) REFERENCES `trip`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_leg_tripId` ON `leg` (`tripId`)");
+
+            database.execSQL("CREATE TABLE IF NOT EXISTS `stop` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, "
+                    + "`legId` INTEGER NOT NULL, `eventId` INTEGER NOT NULL, `role` INTEGER NOT NULL, `name` TEXT, "
+                    + "`type` TEXT, `extId` TEXT, `lat` REAL NOT NULL, `lon` REAL NOT NULL, `time` INTEGER NOT NULL, "
+                    + "`track` TEXT, FOREIGN KEY(`legId`) REFERENCES `leg`(`id`) ON UPDATE NO ACTION ON DELETE CASCADE )");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_stop_legId` ON `stop` (`legId`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_stop_eventId` ON `stop` (`eventId`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_stop_extId` ON `stop` (`extId`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_stop_time` ON `stop` (`time`)");
+
+            try (Cursor cursor = database.query("SELECT `id`, `eventId`, `trips` FROM `TripData`")) {
+                while (cursor.moveToNext()) {
+                    if (cursor.isNull(2)) continue;
+
+                    Trip[] trips;
+                    try {
+                        trips = TripCodec.decode(cursor.getBlob(2));
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        continue;
+                    }
+                    insertTrips(database, cursor.getLong(0), cursor.getLong(1), trips);
+                }
+            }
+        }
+    };
+
+    /**
+     * Adds the flag for TripData objects that have been searched in the background
+     */
+    public static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `TripData` ADD COLUMN `prefetched` INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
+    /**
+     * Adds the event instance of TripData objects that have been searched in the background and
+     * the table of deleted background searches. Existing background searches keep the instance
+     * time 0, so that they are removed as expired by the next search.
+     */
+    public static final Migration MIGRATION_5_6 = new Migration(5, 6) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE `TripData` ADD COLUMN `instanceTime` INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_TripData_instanceTime` ON `TripData` (`instanceTime`)");
+
+            database.execSQL("CREATE TABLE IF NOT EXISTS `prefetch_dismissal` (`eventId` INTEGER NOT NULL, "
+                    + "`instanceTime` INTEGER NOT NULL, PRIMARY KEY(`eventId`, `instanceTime`))");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_prefetch_dismissal_instanceTime` ON `prefetch_dismissal` (`instanceTime`)");
+        }
+    };
+
+    /**
+     * Adds the index of the fetch time of geocoder results, so that outdated results are removed
+     * without scanning the whole table
+     */
+    public static final Migration MIGRATION_6_7 = new Migration(6, 7) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_geocode_fetchedAt` ON `geocode` (`fetchedAt`)");
+        }
+    };
+
+    /**
+     * All migrations that are needed to open a database of an older version
+     */
+    public static final Migration[] MIGRATIONS = {MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7};
+
+    /**
+     * Splits the trips of a stored TripData object into the trip, leg and stop tables. Equivalent to
+     * TripDataDAO.insert for migrations, where the DAO can't be used.
+     */
+    private static void insertTrips(SupportSQLiteDatabase database, long tripDataId, long eventId, Trip[] trips) {
+        for (int i = 0; i < trips.length; i++) {
+            TripEntry trip = TripEntry.of(tripDataId, eventId, i, trips[i]);
+
+            ContentValues tripValues = new ContentValues();
+            tripValues.put("tripDataId", trip.getTripDataId());
+            tripValues.put("eventId", trip.getEventId());
+            tripValues.put("position", trip.getPosition());
+            tripValues.put("departure", trip.getDeparture());
+            tripValues.put("arrival", trip.getArrival());
+            long tripId = database.insert("trip", SQLiteDatabase.CONFLICT_ABORT, tripValues);
+
+            Leg[] legs = trips[i].getLeglist() == null ? null : trips[i].getLeglist().getLegs();
+            if (legs == null) continue;
+
+            for (int j = 0; j < legs.length; j++) {
+                LegEntry leg = LegEntry.of(tripId, j, legs[j]);
+
+                ContentValues legValues = new ContentValues();
+                legValues.put("tripId", leg.getTripId());
+                legValues.put("position", leg.getPosition());
+                legValues.put("name", leg.getName());
+                legValues.put("category", leg.getCategory());
+                legValues.put("type", leg.getType());
+                long legId = database.insert("leg", SQLiteDatabase.CONFLICT_ABORT, legValues);
+
+                if (legs[j].getOrigin() != null)
+                    insertStop(database, StopEntry.of(legId, eventId, StopEntry.ORIGIN, legs[j].getOrigin()));
+                if (legs[j].getDestination() != null)
+                    insertStop(database, StopEntry.of(legId, eventId, StopEntry.DESTINATION, legs[j].getDestination()));
+            }
+        }
+    }
+
+    private static void insertStop(SupportSQLiteDatabase database, StopEntry stop) {
+        ContentValues values = new ContentValues();
+        values.put("legId", stop.getLegId());
+        values.put("eventId", stop.getEventId());
+        values.put("role", stop.getRole());
+        values.put("name", stop.getName());
+        values.put("type", stop.getType());
+        values.put("extId", stop.getExtId());
+        values.put("lat", stop.getLat());
+        values.put("lon", stop.getLon());
+        values.put("time", stop.getTime());
+        values.put("track", stop.getTrack());
+        database.insert("stop", SQLiteDatabase.CONFLICT_ABORT, values);
+    }
 }
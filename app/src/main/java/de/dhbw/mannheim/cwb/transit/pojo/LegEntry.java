@@ -0,0 +1,73 @@
+package de.dhbw.mannheim.cwb.transit.pojo;
+
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * A single leg of a saved trip
+ */
+@Entity(tableName = "leg",
+        foreignKeys = @ForeignKey(entity = TripEntry.class, parentColumns = "id",
+                childColumns = "tripId", onDelete = ForeignKey.CASCADE),
+        indices = {@Index("tripId")})
+public class LegEntry {
+
+    @PrimaryKey(autoGenerate = true)
+    private final long id;
+
+    private final long tripId;
+
+    // the index of the leg inside of the trip
+    private final int position;
+
+    private final String name;
+    private final String category;
+    private final String type;
+
+    public LegEntry(long id, long tripId, int position, String name, String category, String type) {
+        this.id = id;
+        this.tripId = tripId;
+        this.position = position;
+        this.name = name;
+        this.category = category;
+        this.type = type;
+    }
+
+    /**
+     * Creates the entry for a leg that has not been stored yet
+     *
+     * @param tripId   the id of the trip that contains the leg
+     * @param position the index of the leg inside of the trip
+     * @param leg      the leg
+     * @return the new entry
+     */
+    public static LegEntry of(long tripId, int position, Leg leg) {
+        return new LegEntry(0, tripId, position, leg.getName(), leg.getCategory(), leg.getType());
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getTripId() {
+        return tripId;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public String getType() {
+        return type;
+    }
+}
@@ -0,0 +1,30 @@
+package de.dhbw.mannheim.cwb.transit.pojo;
+
+import androidx.room.Entity;
+import androidx.room.Index;
+
+/**
+ * Records that the user has deleted the trips that have been searched in the background for an
+ * event instance, so that they are not searched again
+ */
+@Entity(tableName = "prefetch_dismissal", primaryKeys = {"eventId", "instanceTime"},
+        indices = {@Index("instanceTime")})
+public class PrefetchDismissal {
+
+    private final long eventId;
+    private final long instanceTime;
+
+    public PrefetchDismissal(long eventId, long instanceTime) {
+        this.eventId = eventId;
+        this.instanceTime = instanceTime;
+    }
+
+    public long getEventId() {
+        return eventId;
+    }
+
+    public long getInstanceTime() {
+        return instanceTime;
+    }
+
+}
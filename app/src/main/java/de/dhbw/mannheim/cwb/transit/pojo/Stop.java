@@ -1,14 +1,26 @@
 package de.dhbw.mannheim.cwb.transit.pojo;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+
 /**
  * @author Lukas Rothenbach
  */
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class Stop {
 
+    /**
+     * the epoch minute of stops without a valid date or time
+     */
+    public static final long UNKNOWN_TIME = Long.MIN_VALUE;
+
     @JsonProperty("name")
     private String name;
 
@@ -33,6 +45,10 @@ public class Stop {
     @JsonProperty("track")
     private String track;
 
+    // decoded from date and time whenever one of them is set, so that it is not parsed repeatedly
+    @JsonIgnore
+    private long epochMinute = UNKNOWN_TIME;
+
     @JsonProperty("name")
     public String getName() {
         return name;
@@ -91,6 +107,7 @@ public class Stop {
     @JsonProperty("time")
     public void setTime(String time) {
         this.time = time;
+        this.epochMinute = decode(date, time);
     }
 
     @JsonProperty("date")
@@ -101,6 +118,7 @@ public class Stop {
     @JsonProperty("date")
     public void setDate(String date) {
         this.date = date;
+        this.epochMinute = decode(date, time);
     }
 
     @JsonProperty("track")
@@ -112,4 +130,61 @@ public class Stop {
     public void setTrack(String track) {
         this.track = track;
     }
+
+    /**
+     * @return the minutes since the epoch of the date and time of the stop in the time zone of
+     * the device or {@link #UNKNOWN_TIME}
+     */
+    @JsonIgnore
+    public long getEpochMinute() {
+        return epochMinute;
+    }
+
+    /**
+     * @return the milliseconds since the epoch of the date and time of the stop or 0 if it is
+     * unknown
+     */
+    @JsonIgnore
+    public long getEpochMillis() {
+        return epochMinute == UNKNOWN_TIME ? 0 : TimeUnit.MINUTES.toMillis(epochMinute);
+    }
+
+    /**
+     * @return the date and time of the stop in the time zone of the device or null if it is
+     * unknown
+     */
+    @JsonIgnore
+    public LocalDateTime toLocalDateTime() {
+        return epochMinute == UNKNOWN_TIME ? null : LocalDateTime.ofInstant(
+                Instant.ofEpochSecond(TimeUnit.MINUTES.toSeconds(epochMinute)), ZoneId.systemDefault());
+    }
+
+    /**
+     * Decodes a date (yyyy-MM-dd) and time (HH:mm[:ss]) of the RMV API without creating
+     * intermediate strings
+     */
+    private static long decode(String date, String time) {
+        if (date == null || time == null || date.length() != 10 || time.length() < 5) return UNKNOWN_TIME;
+
+        int year = digits(date, 0, 4), month = digits(date, 5, 2), day = digits(date, 8, 2);
+        int hour = digits(time, 0, 2), minute = digits(time, 3, 2);
+        if (year < 0 || month < 0 || day < 0 || hour < 0 || minute < 0) return UNKNOWN_TIME;
+
+        try {
+            return TimeUnit.SECONDS.toMinutes(LocalDateTime.of(year, month, day, hour, minute)
+                    .atZone(ZoneId.systemDefault()).toEpochSecond());
+        } catch (DateTimeException e) {
+            return UNKNOWN_TIME;
+        }
+    }
+
+    private static int digits(String value, int start, int count) {
+        int result = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
 }
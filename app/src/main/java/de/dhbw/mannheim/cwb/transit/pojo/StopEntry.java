@@ -0,0 +1,110 @@
+package de.dhbw.mannheim.cwb.transit.pojo;
+
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * The origin or destination of a saved leg
+ */
+@Entity(tableName = "stop",
+        foreignKeys = @ForeignKey(entity = LegEntry.class, parentColumns = "id",
+                childColumns = "legId", onDelete = ForeignKey.CASCADE),
+        indices = {@Index("legId"), @Index("eventId"), @Index("extId"), @Index("time")})
+public class StopEntry {
+
+    public static final int ORIGIN = 0;
+    public static final int DESTINATION = 1;
+
+    @PrimaryKey(autoGenerate = true)
+    private final long id;
+
+    private final long legId;
+    private final long eventId;
+
+    // ORIGIN or DESTINATION
+    private final int role;
+
+    private final String name;
+    private final String type;
+    private final String extId;
+    private final double lat;
+    private final double lon;
+
+    // epoch milliseconds, 0 if unknown
+    private final long time;
+    private final String track;
+
+    public StopEntry(long id, long legId, long eventId, int role, String name, String type, String extId, double lat, double lon, long time, String track) {
+        this.id = id;
+        this.legId = legId;
+        this.eventId = eventId;
+        this.role = role;
+        this.name = name;
+        this.type = type;
+        this.extId = extId;
+        this.lat = lat;
+        this.lon = lon;
+        this.time = time;
+        this.track = track;
+    }
+
+    /**
+     * Creates the entry for a stop that has not been stored yet
+     *
+     * @param legId   the id of the leg that contains the stop
+     * @param eventId the identifier of the associated event
+     * @param role    ORIGIN or DESTINATION
+     * @param stop    the stop
+     * @return the new entry
+     */
+    public static StopEntry of(long legId, long eventId, int role, Stop stop) {
+        return new StopEntry(0, legId, eventId, role, stop.getName(), stop.getType(), stop.getExtId(),
+                stop.getLat(), stop.getLon(), TripEntry.toEpochMillis(stop), stop.getTrack());
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getLegId() {
+        return legId;
+    }
+
+    public long getEventId() {
+        return eventId;
+    }
+
+    public int getRole() {
+        return role;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getExtId() {
+        return extId;
+    }
+
+    public double getLat() {
+        return lat;
+    }
+
+    public double getLon() {
+        return lon;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public String getTrack() {
+        return track;
+    }
+}
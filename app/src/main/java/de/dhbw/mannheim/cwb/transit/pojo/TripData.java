@@ -6,6 +6,7 @@ import androidx.room.Ignore;
 import androidx.room.PrimaryKey;
 import androidx.room.TypeConverters;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
@@ -25,10 +26,35 @@ public class TripData {
     private long eventId;
     private String dataSource;
 
+    // whether the trips have been searched in the background instead of being saved by the user
+    @ColumnInfo(defaultValue = "0")
+    @JsonIgnore
+    private boolean prefetched;
+
+    // the time of the event instance the trips have been searched for in the background (its
+    // start, noon for all-day events), 0 for trips saved by the user
+    @ColumnInfo(defaultValue = "0", index = true)
+    @JsonIgnore
+    private long instanceTime;
+
     @TypeConverters(DataConverter.class)
     @JsonProperty("Trip")
     private Trip[] trips;
 
+    // scroll contexts of the RMV API to query earlier and later trips, they are not persisted
+    @Ignore
+    @JsonProperty("scrB")
+    private String earlierContext;
+
+    @Ignore
+    @JsonProperty("scrF")
+    private String laterContext;
+
+    // the name of the provider that created the scroll contexts, only it understands them
+    @Ignore
+    @JsonIgnore
+    private String contextSource;
+
     @Ignore
     public TripData() {
         this(0);
@@ -60,6 +86,36 @@ public class TripData {
         this.trips = trips;
     }
 
+    @JsonProperty("scrB")
+    public String getEarlierContext() {
+        return earlierContext;
+    }
+
+    @JsonProperty("scrB")
+    public void setEarlierContext(String earlierContext) {
+        this.earlierContext = earlierContext;
+    }
+
+    @JsonProperty("scrF")
+    public String getLaterContext() {
+        return laterContext;
+    }
+
+    @JsonProperty("scrF")
+    public void setLaterContext(String laterContext) {
+        this.laterContext = laterContext;
+    }
+
+    @JsonIgnore
+    public String getContextSource() {
+        return contextSource;
+    }
+
+    @JsonIgnore
+    public void setContextSource(String contextSource) {
+        this.contextSource = contextSource;
+    }
+
     public String getDataSource() {
         return dataSource;
     }
@@ -68,4 +124,24 @@ public class TripData {
         this.dataSource = dataSource;
     }
 
+    @JsonIgnore
+    public boolean isPrefetched() {
+        return prefetched;
+    }
+
+    @JsonIgnore
+    public void setPrefetched(boolean prefetched) {
+        this.prefetched = prefetched;
+    }
+
+    @JsonIgnore
+    public long getInstanceTime() {
+        return instanceTime;
+    }
+
+    @JsonIgnore
+    public void setInstanceTime(long instanceTime) {
+        this.instanceTime = instanceTime;
+    }
+
 }
@@ -0,0 +1,94 @@
+package de.dhbw.mannheim.cwb.transit.pojo;
+
+import androidx.room.Entity;
+import androidx.room.ForeignKey;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * A single trip of a saved TripData object. The trips are stored next to the TripData blob so
+ * that saved journeys can be filtered and sorted by SQLite without decoding every row.
+ */
+@Entity(tableName = "trip",
+        foreignKeys = @ForeignKey(entity = TripData.class, parentColumns = "id",
+                childColumns = "tripDataId", onDelete = ForeignKey.CASCADE),
+        indices = {@Index("tripDataId"), @Index("eventId"), @Index("departure")})
+public class TripEntry {
+
+    @PrimaryKey(autoGenerate = true)
+    private final long id;
+
+    private final long tripDataId;
+    private final long eventId;
+
+    // the index of the trip inside of the TripData object
+    private final int position;
+
+    // epoch milliseconds, 0 if unknown
+    private final long departure;
+    private final long arrival;
+
+    public TripEntry(long id, long tripDataId, long eventId, int position, long departure, long arrival) {
+        this.id = id;
+        this.tripDataId = tripDataId;
+        this.eventId = eventId;
+        this.position = position;
+        this.departure = departure;
+        this.arrival = arrival;
+    }
+
+    /**
+     * Creates the entry for a trip that has not been stored yet
+     *
+     * @param tripDataId the id of the TripData object that contains the trip
+     * @param eventId    the identifier of the associated event
+     * @param position   the index of the trip inside of the TripData object
+     * @param trip       the trip
+     * @return the new entry
+     */
+    public static TripEntry of(long tripDataId, long eventId, int position, Trip trip) {
+        long departure = 0, arrival = 0;
+
+        Leg[] legs = trip.getLeglist() == null ? null : trip.getLeglist().getLegs();
+        if (legs != null && legs.length > 0) {
+            departure = toEpochMillis(legs[0].getOrigin());
+            arrival = toEpochMillis(legs[legs.length - 1].getDestination());
+        }
+
+        return new TripEntry(0, tripDataId, eventId, position, departure, arrival);
+    }
+
+    /**
+     * Converts the date and time of the stop into milliseconds since the epoch
+     *
+     * @param stop the stop
+     * @return the time of the stop or 0 if it is unknown
+     */
+    public static long toEpochMillis(Stop stop) {
+        return stop == null ? 0 : stop.getEpochMillis();
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getTripDataId() {
+        return tripDataId;
+    }
+
+    public long getEventId() {
+        return eventId;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public long getDeparture() {
+        return departure;
+    }
+
+    public long getArrival() {
+        return arrival;
+    }
+}
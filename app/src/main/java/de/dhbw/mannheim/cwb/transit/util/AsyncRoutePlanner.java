@@ -3,33 +3,49 @@ package de.dhbw.mannheim.cwb.transit.util;
 import android.content.Context;
 import android.location.Address;
 
-import androidx.lifecycle.LiveData;
-import androidx.room.Room;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.Future;
-import java.util.concurrent.FutureTask;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import de.dhbw.mannheim.cwb.transit.pojo.JourneyDatabase;
 import de.dhbw.mannheim.cwb.transit.pojo.Leg;
+import de.dhbw.mannheim.cwb.transit.pojo.Stop;
 import de.dhbw.mannheim.cwb.transit.pojo.Trip;
 import de.dhbw.mannheim.cwb.transit.pojo.TripData;
 
 /**
  * @author Lukas Rothenbach
- * Async Entry point to the route planning system. It is responsible for the trip database management as well as performing the RMV API requests.
+ * Async Entry point to the route planning system. It is responsible for the trip database management as well as querying the transit providers.
  */
 public class AsyncRoutePlanner {
 
-    private static final Object LOCK = new Object();
+    /**
+     * the time in seconds that may be spent on finding addresses for the coordinates of a TripData object
+     */
+    private static final long REVERSE_GEOCODING_DEADLINE_SECONDS = 10;
+
+    /**
+     * the number of addresses that are looked up concurrently for a single TripData object
+     */
+    private static final int MAX_PARALLEL_LOOKUPS = 4;
 
-    private static JourneyDatabase database = null;
+    /**
+     * the minimal time between two notifications about resolved stop names
+     */
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
 
     /**
-     * Queries the RMV API returns a new TripData object with various route options.
+     * Queries the registered transit providers (e.g. the RMV API) and returns a new TripData object with various route options.
      * In order to save a desired route option "saveTripToDatabase" needs to be called
      *
      * @param context          current context
@@ -39,29 +55,117 @@ public class AsyncRoutePlanner {
      * @param time             the time in milliseconds at which one should arrive at the destination
      * @return
      */
-    public static Future<TripData> queryJourneyDetails(Context context, String origin, String destination, boolean searchForArrival, long time) {
-        FutureTask<TripData> task = new FutureTask<>(() -> {
-            Address originAddress = LocationParser.getLocationFromAddress(context, origin);
-            Address destinationAddress = LocationParser.getLocationFromAddress(context, destination);
+    public static TransitTask<TripData> queryJourneyDetails(Context context, String origin, String destination, boolean searchForArrival, long time) {
+        return queryJourneyDetails(context, origin, destination, searchForArrival, time, null);
+    }
+
+    /**
+     * Queries the registered transit providers (e.g. the RMV API) and returns a new TripData object with various route options.
+     * In order to save a desired route option "saveTripToDatabase" needs to be called.
+     * The listener receives a copy of the TripData object as soon as a transit provider has answered
+     * and whenever the names of further stops have been resolved.
+     *
+     * @param context          current context
+     * @param origin           start address String
+     * @param destination      destination address String
+     * @param searchForArrival whether to use the time as arrival time or as departure time
+     * @param time             the time in milliseconds at which one should arrive at the destination
+     * @param listener         receives the partial results, may be null
+     * @return
+     */
+    public static TransitTask<TripData> queryJourneyDetails(Context context, String origin, String destination, boolean searchForArrival, long time, TripDataListener listener) {
+        return TransitExecutor.NETWORK.submit(() -> {
+            Address[] addresses = findAddresses(context, origin, destination);
 
-            if (originAddress == null && destinationAddress == null)
-                throw new IllegalArgumentException("No address could be found for requested addresses \"" + origin + "\" and \"" + destination + "\"");
+            // executed in the same task so that a cancellation also stops the actual query
+            return findJourneyDetails(context, addresses[0], addresses[1], searchForArrival, time, null, null, listener);
+        });
+    }
 
-            if (originAddress == null)
-                throw new IllegalArgumentException("No address could be found for requested address \"" + origin + "\"");
+    /**
+     * Queries the transit provider of the current TripData object for the trips that depart after the trips of the current TripData object.
+     * The new trips are appended to a copy of the current TripData object.
+     *
+     * @param context          current context
+     * @param origin           start address String of the current search
+     * @param destination      destination address String of the current search
+     * @param searchForArrival whether the current search uses the time as arrival time or as departure time
+     * @param time             the time in milliseconds of the current search
+     * @param current          the result of the current search
+     * @return a future that completes with the extended TripData object
+     */
+    public static TransitTask<TripData> queryLaterJourneyDetails(Context context, String origin, String destination, boolean searchForArrival, long time, TripData current) {
+        return queryJourneyPage(context, origin, destination, searchForArrival, time, current, true);
+    }
 
-            if (destinationAddress == null)
-                throw new IllegalArgumentException("No address could be found for requested address \"" + destination + "\"");
+    /**
+     * Queries the transit provider of the current TripData object for the trips that depart before the trips of the current TripData object.
+     * The new trips are prepended to a copy of the current TripData object.
+     *
+     * @param context          current context
+     * @param origin           start address String of the current search
+     * @param destination      destination address String of the current search
+     * @param searchForArrival whether the current search uses the time as arrival time or as departure time
+     * @param time             the time in milliseconds of the current search
+     * @param current          the result of the current search
+     * @return a future that completes with the extended TripData object
+     */
+    public static TransitTask<TripData> queryEarlierJourneyDetails(Context context, String origin, String destination, boolean searchForArrival, long time, TripData current) {
+        return queryJourneyPage(context, origin, destination, searchForArrival, time, current, false);
+    }
 
-            return queryJourneyDetails(context, originAddress, destinationAddress, searchForArrival, time).get();
+    private static TransitTask<TripData> queryJourneyPage(Context context, String origin, String destination, boolean searchForArrival, long time, TripData current, boolean later) {
+        String scrollContext = later ? current.getLaterContext() : current.getEarlierContext();
+        if (scrollContext == null)
+            throw new IllegalStateException("The transit provider did not provide " + (later ? "later" : "earlier") + " trips");
+
+        return TransitExecutor.NETWORK.submit(() -> {
+            Address[] addresses = findAddresses(context, origin, destination);
+            // only the new page is requested and parsed
+            TripData page = findJourneyDetails(context, addresses[0], addresses[1], searchForArrival, time, scrollContext, current.getContextSource(), null);
+
+            Trip[] trips = current.getTrips() == null ? new Trip[0] : current.getTrips();
+            Trip[] first = later ? trips : page.getTrips();
+            Trip[] second = later ? page.getTrips() : trips;
+
+            Trip[] merged = Arrays.copyOf(first, first.length + second.length);
+            System.arraycopy(second, 0, merged, first.length, second.length);
+
+            TripData tripData = new TripData();
+            tripData.setDataSource(current.getDataSource());
+            tripData.setContextSource(current.getContextSource());
+            tripData.setEarlierContext(later ? current.getEarlierContext() : page.getEarlierContext());
+            tripData.setLaterContext(later ? page.getLaterContext() : current.getLaterContext());
+            tripData.setTrips(merged);
+            return tripData;
         });
+    }
+
+    /**
+     * Looks up the addresses of the provided address strings
+     *
+     * @return the origin and the destination address
+     * @throws InterruptedException if the search has been cancelled
+     */
+    private static Address[] findAddresses(Context context, String origin, String destination) throws InterruptedException {
+        Address originAddress = LocationParser.getLocationFromAddress(context, origin);
+        Address destinationAddress = LocationParser.getLocationFromAddress(context, destination);
+
+        if (originAddress == null && destinationAddress == null)
+            throw new IllegalArgumentException("No address could be found for requested addresses \"" + origin + "\" and \"" + destination + "\"");
 
-        new Thread(task).start();
-        return task;
+        if (originAddress == null)
+            throw new IllegalArgumentException("No address could be found for requested address \"" + origin + "\"");
+
+        if (destinationAddress == null)
+            throw new IllegalArgumentException("No address could be found for requested address \"" + destination + "\"");
+
+        checkCancelled();
+        return new Address[]{originAddress, destinationAddress};
     }
 
     /**
-     * Queries the RMV API returns a new TripData object with various route options.
+     * Queries the registered transit providers (e.g. the RMV API) and returns a new TripData object with various route options.
      * In order to save a desired route option "saveTripToDatabase" needs to be called
      *
      * @param context            current context
@@ -71,156 +175,250 @@ public class AsyncRoutePlanner {
      * @param time               the time in milliseconds at which one should arrive at the destination
      * @return
      */
-    public static Future<TripData> queryJourneyDetails(Context context, Address originAddress, Address destinationAddress, boolean searchForArrival, long time) {
+    public static TransitTask<TripData> queryJourneyDetails(Context context, Address originAddress, Address destinationAddress, boolean searchForArrival, long time) {
         if (originAddress == null || destinationAddress == null)
             throw new NullPointerException("Address must not be null");
 
-        FutureTask<TripData> task = new FutureTask<>(() -> {
-            RoutePlanner planner = new RoutePlanner();
-
-            Address origin = LocationParser.queryCoordinatesForAddress(context, originAddress);
-            Address destination = LocationParser.queryCoordinatesForAddress(context, destinationAddress);
-            if (origin == null)
-                throw new IOException("No Coordinates could be found for " + originAddress);
-            if (destination == null)
-                throw new IOException("No Coordinates could be found for " + destinationAddress);
-
-            TripData tripdata = planner.getTripData(context, origin, destination, searchForArrival, time);
-            removeCoordinates(context, tripdata);
-            tripdata.setDataSource("RMV");
-
-            return tripdata;
-        });
-
-        new Thread(task).start();
-        return task;
+        return TransitExecutor.NETWORK.submit(() -> findJourneyDetails(context, originAddress, destinationAddress, searchForArrival, time, null, null, null));
     }
 
     /**
-     * Queries the room database for an tripData object containing the provided key. If an entry is found it is returned.
-     * Otherwise null will be returned
+     * Queries the registered transit providers on the calling thread.
      *
-     * @param context current context
-     * @param eventId the identifier of the TripData object so that it can be linked to an calendar entry
-     * @return
+     * @param context            current context
+     * @param originAddress      start address
+     * @param destinationAddress destination address
+     * @param searchForArrival   whether to use the time as arrival time or as departure time
+     * @param time               the time in milliseconds at which one should arrive at the destination
+     * @param scrollContext      the scroll context for earlier or later trips, null for the first query
+     * @param contextSource      the name of the provider that created the scroll context
+     * @param listener           receives the partial results, may be null
+     * @return the found TripData object
+     * @throws IOException          if no coordinates could be found for one of the addresses
+     * @throws InterruptedException if the search has been cancelled
      */
-    public static Future<LiveData<List<TripData>>> getJourneyDetails(Context context, long eventId) {
-        FutureTask<LiveData<List<TripData>>> task = new FutureTask<>(() -> {
-            JourneyDatabase database = getOrInitDatabase(context);
-            return database.tripDataDAO().getTripDataByEventId(eventId);
-        });
+    private static TripData findJourneyDetails(Context context, Address originAddress, Address destinationAddress, boolean searchForArrival, long time, String scrollContext, String contextSource, TripDataListener listener) throws IOException, InterruptedException {
+        Address origin = LocationParser.queryCoordinatesForAddress(context, originAddress);
+        Address destination = LocationParser.queryCoordinatesForAddress(context, destinationAddress);
+        if (origin == null)
+            throw new IOException("No Coordinates could be found for " + originAddress);
+        if (destination == null)
+            throw new IOException("No Coordinates could be found for " + destinationAddress);
+
+        checkCancelled();
+
+        // repeated and concurrent identical searches are answered by a single query
+        String key = JourneyCache.key(origin, destination, searchForArrival, time, scrollContext);
+        return JourneyCache.getInstance().get(key, () -> {
+            TripData tripdata;
+            try {
+                tripdata = TransitRouter.findTrips(context, origin, destination, searchForArrival, time, scrollContext, contextSource);
+            } catch (IOException | RuntimeException e) {
+                // report a cancellation as such, so that waiting identical searches start over
+                checkCancelled();
+                throw e;
+            }
+
+            publish(listener, tripdata);
+
+            checkCancelled();
+            removeCoordinates(context, tripdata, System.nanoTime() + TimeUnit.SECONDS.toNanos(REVERSE_GEOCODING_DEADLINE_SECONDS), listener);
 
-        new Thread(task).start();
-        return task;
+            return tripdata;
+        });
     }
 
     /**
      * Takes the chosen route and saves it to the database. It will be associated with the given
-     * TripData source and the eventId (It will be modified).
+     * TripData source and the eventId (It will be modified). A source that has been searched in
+     * the background stays a suggestion.
      *
      * @param context current context
      * @param eventId the identifier of the associated event
      * @param source  the TripData Source that should be saved
      * @param trips   the Trip objects that are supposed to be stored in the database
-     * @return
+     * @return a future that completes with the id of the saved TripData object
      */
-    public static FutureTask<?> saveTripToDatabase(Context context, long eventId, TripData source, Trip... trips) {
-        FutureTask<?> task = new FutureTask<>(() -> {
-            JourneyDatabase database = getOrInitDatabase(context);
-
-            TripData _source = source;
-            if (_source == null) _source = new TripData();
-
-            // override old (or not yet set) data with source
-            _source.setEventId(eventId);
-            _source.setTrips(trips);
+    public static TransitTask<Long> saveTripToDatabase(Context context, long eventId, TripData source, Trip... trips) {
+        TripData _source = source;
+        if (_source == null) _source = new TripData();
 
-            // save the new data
-            TripDataDAO dao = database.tripDataDAO();
+        // override old (or not yet set) data with source
+        _source.setEventId(eventId);
+        _source.setTrips(trips);
 
-            if (_source.getId() == 0 || dao.getTripDataById(_source.getId()) == null) {
-                dao.insert(_source);
-            } else dao.update(_source);
-        }, null);
-
-        new Thread(task).start();
-
-        return task;
+        TripData data = _source;
+        return TransitExecutor.DATABASE.submit(() -> getOrInitDatabase(context).tripDataDAO().save(data));
     }
 
     /**
-     * Takes the chosen route and saves it to the database.
+     * Removes the TripData object from the database. If its trips have been searched in the
+     * background, they are not searched again for the same event instance.
      *
      * @param context current context
      * @param source  the TripData Source that should be removed
      * @return
      */
-    public static FutureTask<?> deleteTripDataFromDatabase(Context context, TripData source) {
-        FutureTask<?> task = new FutureTask<>(() -> {
+    public static TransitTask<?> deleteTripDataFromDatabase(Context context, TripData source) {
+        return TransitExecutor.DATABASE.submit(() -> {
             JourneyDatabase database = getOrInitDatabase(context);
 
-            // save the new data
-            database.tripDataDAO().delete(source);
-        }, null);
-
-        new Thread(task).start();
+            database.tripDataDAO().remove(source);
+        });
+    }
 
-        return task;
+    /**
+     * Aborts the current search if the executing task has been cancelled
+     *
+     * @throws InterruptedException if the search has been cancelled
+     */
+    private static void checkCancelled() throws InterruptedException {
+        if (Thread.interrupted()) throw new InterruptedException("The search has been cancelled");
     }
 
     /**
-     * Removes the coordinates from the leg objects of each Stop and tries to find the address represented by the coordinates
+     * Removes the coordinates from the leg objects of each Stop and tries to find the address represented by the coordinates.
+     * Every coordinate is only resolved once, even if it is used by multiple trips. The lookups are performed concurrently
+     * and the names are applied as soon as the address is known. Stops that could not be resolved until the deadline keep
+     * their coordinates as name.
      *
      * @param context  current context
      * @param tripData a TripData object containing route details
+     * @param deadline the value of System.nanoTime() after which no further addresses are queried
+     * @param listener receives the TripData object whenever names have been resolved, may be null
+     * @throws InterruptedException if the search has been cancelled
      */
-    private static void removeCoordinates(Context context, TripData tripData) {
+    private static void removeCoordinates(Context context, TripData tripData, long deadline, TripDataListener listener) throws InterruptedException {
+        // group the stops by their name so that each coordinate is only resolved once
+        Map<String, List<Stop>> stopsByCoordinate = new LinkedHashMap<>();
         for (Trip trip : tripData.getTrips()) {
             for (Leg leg : trip.getLeglist().getLegs()) {
-                if (isCoordinate(leg.getOrigin().getName())) {
-                    String[] coordinates = leg.getOrigin().getName().split(",");
-                    String name = LocationParser.getAddressFromCoordinates(context, Double.parseDouble(coordinates[0]), Double.parseDouble(coordinates[1]));
-                    if (name != null) {
-                        leg.getOrigin().setName(name);
-                    }
+                addIfCoordinate(stopsByCoordinate, leg.getOrigin());
+                addIfCoordinate(stopsByCoordinate, leg.getDestination());
+            }
+        }
+
+        Iterator<Map.Entry<String, List<Stop>>> pending = stopsByCoordinate.entrySet().iterator();
+        BlockingQueue<StopLookup> completed = new LinkedBlockingQueue<>();
+        List<StopLookup> running = new ArrayList<>();
+
+        CoordinateParser.Coordinate coordinate = new CoordinateParser.Coordinate();
+        long lastUpdate = System.nanoTime();
+        boolean changed = false;
+        try {
+            while (true) {
+                // keep up to MAX_PARALLEL_LOOKUPS lookups running
+                while (running.size() < MAX_PARALLEL_LOOKUPS && pending.hasNext()) {
+                    Map.Entry<String, List<Stop>> entry = pending.next();
+                    CoordinateParser.parse(entry.getKey(), coordinate);
+                    double latitude = coordinate.getLatitude();
+                    double longitude = coordinate.getLongitude();
+
+                    StopLookup lookup = new StopLookup(entry.getValue(), TransitExecutor.GEOCODING.submit(
+                            () -> LocationParser.getAddressFromCoordinates(context, latitude, longitude)));
+                    lookup.task.addCompletionListener(() -> completed.add(lookup));
+                    running.add(lookup);
+                }
+                if (running.isEmpty()) break;
+
+                long remaining = deadline - System.nanoTime();
+                StopLookup lookup = remaining > 0 ? completed.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                if (lookup == null) break; // deadline passed
+
+                running.remove(lookup);
+                String name = lookup.getName();
+                if (name != null) {
+                    for (Stop stop : lookup.stops) stop.setName(name);
+                    changed = true;
                 }
-                if (isCoordinate(leg.getDestination().getName())) {
-                    String[] coordinates = leg.getDestination().getName().split(",");
-                    String name = LocationParser.getAddressFromCoordinates(context, Double.parseDouble(coordinates[0]), Double.parseDouble(coordinates[1]));
-                    if (name != null) {
-                        leg.getDestination().setName(name);
-                    }
+
+                if (listener != null && changed && System.nanoTime() - lastUpdate > PROGRESS_INTERVAL_NANOS) {
+                    publish(listener, tripData);
+                    lastUpdate = System.nanoTime();
+                    changed = false;
                 }
             }
+        } finally {
+            for (StopLookup lookup : running) lookup.task.cancel(true);
         }
+
+        if (changed) publish(listener, tripData);
     }
 
     /**
-     * Checks whether the provided String represents a coordinate
+     * Passes a copy of the TripData object to the listener. The search keeps setting the names of
+     * its own object, while the copy is read by other threads (e.g. the main thread) or saved.
      *
-     * @param name the String that is supposed to be checked
-     * @return true if the provided string is a coordinate, false otherwise
+     * @param listener receives the copy, may be null
+     * @param tripData the TripData object of the search
      */
-    private static boolean isCoordinate(String name) {
-        Pattern pattern = Pattern.compile("^(-?\\d+(\\.\\d+)?),\\s*(-?\\d+(\\.\\d+)?)$");
-        Matcher matcher = pattern.matcher(name);
-        return matcher.matches();
+    private static void publish(TripDataListener listener, TripData tripData) {
+        if (listener == null) return;
+
+        TripData copy = new TripData();
+        copy.setEventId(tripData.getEventId());
+        copy.setDataSource(tripData.getDataSource());
+        copy.setContextSource(tripData.getContextSource());
+        copy.setEarlierContext(tripData.getEarlierContext());
+        copy.setLaterContext(tripData.getLaterContext());
+        try {
+            if (tripData.getTrips() != null) copy.setTrips(TripCodec.decode(TripCodec.encode(tripData.getTrips())));
+        } catch (IOException e) {
+            // the partial result is skipped, the complete result is still returned by the search
+            e.printStackTrace();
+            return;
+        }
+        listener.onUpdate(copy);
+    }
+
+    private static void addIfCoordinate(Map<String, List<Stop>> stopsByCoordinate, Stop stop) {
+        if (!CoordinateParser.isCoordinate(stop.getName())) return;
+
+        List<Stop> stops = stopsByCoordinate.get(stop.getName());
+        if (stops == null) stopsByCoordinate.put(stop.getName(), stops = new ArrayList<>());
+        stops.add(stop);
     }
 
     /**
-     * Returns the database field. If necessary a new JourneyDatabase is created with
-     * the given Context through Room.databaseBuilder.
-     *
-     * @param context the context that should be used
+     * Receives partial results of a search
      */
-    private static JourneyDatabase getOrInitDatabase(Context context) {
-        synchronized (LOCK) {
-            if (database == null) {
-                database = Room.databaseBuilder(context, JourneyDatabase.class, "journeyDatabase").build();
-            }
+    public interface TripDataListener {
+        /**
+         * Called on a background thread whenever the TripData object of the search has been updated
+         *
+         * @param tripData a copy of the TripData object of the search, it is not modified afterwards
+         */
+        void onUpdate(TripData tripData);
+    }
 
-            return database;
+    /**
+     * A pending address lookup for all stops sharing the same coordinates
+     */
+    private static class StopLookup {
+        private final List<Stop> stops;
+        private final TransitTask<String> task;
+
+        StopLookup(List<Stop> stops, TransitTask<String> task) {
+            this.stops = stops;
+            this.task = task;
+        }
+
+        String getName() {
+            try {
+                return task.get();
+            } catch (ExecutionException | InterruptedException | CancellationException e) {
+                return null;
+            }
         }
     }
 
+    /**
+     * Returns the journey database of the JourneyDatabaseProvider.
+     *
+     * @param context the context that should be used
+     */
+    static JourneyDatabase getOrInitDatabase(Context context) {
+        return JourneyDatabaseProvider.get(context);
+    }
+
 }
@@ -0,0 +1,137 @@
+package de.dhbw.mannheim.cwb.transit.util;
+
+/**
+ * Recognises stop names of the RMV API that are coordinates (e.g. "50.107149, 8.663785") and
+ * parses them in a single pass. Other than a regular expression and String.split this does not
+ * allocate any objects for the common case.
+ */
+public final class CoordinateParser {
+
+    /**
+     * the largest mantissa that can be represented exactly by a double
+     */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private CoordinateParser() {
+    }
+
+    /**
+     * Checks whether the provided String represents a coordinate. A coordinate consists of two
+     * decimal numbers separated by a comma, optionally followed by whitespace.
+     *
+     * @param name the String that is supposed to be checked
+     * @return true if the provided string is a coordinate, false otherwise
+     */
+    public static boolean isCoordinate(CharSequence name) {
+        return name != null && parse(name, null);
+    }
+
+    /**
+     * Parses the provided String into the given holder.
+     *
+     * @param name       the String that is supposed to be parsed
+     * @param coordinate the holder that receives the latitude and longitude, may be null to only
+     *                   check the format
+     * @return true if the provided string is a coordinate, false otherwise. If false is returned
+     * the holder is not modified
+     */
+    public static boolean parse(CharSequence name, Coordinate coordinate) {
+        int length = name.length();
+
+        int latitudeEnd = scanNumber(name, 0, length);
+        if (latitudeEnd < 0 || latitudeEnd >= length || name.charAt(latitudeEnd) != ',') return false;
+
+        int longitudeStart = latitudeEnd + 1;
+        while (longitudeStart < length && Character.isWhitespace(name.charAt(longitudeStart))) longitudeStart++;
+
+        int longitudeEnd = scanNumber(name, longitudeStart, length);
+        if (longitudeEnd != length) return false;
+
+        if (coordinate != null) {
+            coordinate.latitude = toDouble(name, 0, latitudeEnd);
+            coordinate.longitude = toDouble(name, longitudeStart, longitudeEnd);
+        }
+        return true;
+    }
+
+    /**
+     * Scans a number of the format -?\d+(\.\d+)?
+     *
+     * @return the index after the number or -1 if there is no valid number at the given position
+     */
+    private static int scanNumber(CharSequence s, int start, int end) {
+        int i = start;
+        if (i < end && s.charAt(i) == '-') i++;
+
+        int digits = i;
+        while (i < end && isDigit(s.charAt(i))) i++;
+        if (i == digits) return -1;
+
+        if (i < end && s.charAt(i) == '.') {
+            int fraction = ++i;
+            while (i < end && isDigit(s.charAt(i))) i++;
+            if (i == fraction) return -1;
+        }
+
+        return i;
+    }
+
+    /**
+     * Converts a number that has been validated by scanNumber. Numbers with up to 15 significant
+     * digits are converted without allocations, longer numbers are delegated to Double.parseDouble
+     */
+    private static double toDouble(CharSequence s, int start, int end) {
+        int i = start;
+        boolean negative = s.charAt(i) == '-';
+        if (negative) i++;
+
+        long mantissa = 0;
+        int fractionDigits = 0;
+        boolean fraction = false;
+
+        for (; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '.') {
+                fraction = true;
+                continue;
+            }
+
+            mantissa = mantissa * 10 + (c - '0');
+            if (fraction) fractionDigits++;
+
+            if (mantissa >= MAX_EXACT_MANTISSA / 10 || fractionDigits >= POWERS_OF_TEN.length) {
+                return Double.parseDouble(s.subSequence(start, end).toString());
+            }
+        }
+
+        // both values are exact, so the division is correctly rounded
+        double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * A reusable holder for a parsed coordinate
+     */
+    public static final class Coordinate {
+        private double latitude;
+        private double longitude;
+
+        public double getLatitude() {
+            return latitude;
+        }
+
+        public double getLongitude() {
+            return longitude;
+        }
+    }
+
+}
@@ -3,54 +3,54 @@ package de.dhbw.mannheim.cwb.transit.util;
 import androidx.room.TypeConverter;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.IOException;
 
 import de.dhbw.mannheim.cwb.transit.pojo.Trip;
+import de.dhbw.mannheim.cwb.util.JsonMapping;
 
 /**
  * @author Lukas Rothenbach
- * Responsible for the type conversion in order to store an array into the room database
+ * Responsible for the type conversion in order to store an array into the room database.
+ * Trips are stored in the binary format of the {@link TripCodec}, the shared readers and
+ * writers of {@link JsonMapping} are used for all rows.
  */
 public class DataConverter {
 
     /**
-     * Parses the provided Trip array into a json String
+     * Encodes the provided Trip array into the binary format of the TripCodec
      *
-     * @param trips the Trip array that is supposed to be parsed
-     * @return the formed json String
+     * @param trips the Trip array that is supposed to be encoded
+     * @return the encoded trips
      */
     @TypeConverter
-    public String fromTripList(Trip[] trips) {
+    public byte[] fromTripList(Trip[] trips) {
         if (trips == null) {
             return (null);
         }
-        ObjectMapper mapper = new ObjectMapper();
-        String json = null;
+        byte[] data = null;
         try {
-            json = mapper.writeValueAsString(trips);
-        } catch (JsonProcessingException e) {
+            data = TripCodec.encode(trips);
+        } catch (IOException e) {
             e.printStackTrace();
         }
-        return json;
+        return data;
     }
 
     /**
-     * Parsed the provided json String into a Trip array
+     * Decodes the provided bytes into a Trip array
      *
-     * @param tripString the json String that is supposed to be parsed
-     * @return the parsed Trip array
+     * @param data the bytes that are supposed to be decoded
+     * @return the decoded Trip array
      */
     @TypeConverter
-    public Trip[] toTripList(String tripString) {
-        if (tripString == null) {
+    public Trip[] toTripList(byte[] data) {
+        if (data == null) {
             return (null);
         }
-        ObjectMapper mapper = new ObjectMapper();
         Trip[] trips = null;
         try {
-            trips = mapper.readValue(tripString, Trip[].class);
+            trips = TripCodec.decode(data);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -68,10 +68,9 @@ public class DataConverter {
         if (coords == null) {
             return (null);
         }
-        ObjectMapper mapper = new ObjectMapper();
         String json = null;
         try {
-            json = mapper.writeValueAsString(coords);
+            json = JsonMapping.COORDINATES_WRITER.writeValueAsString(coords);
         } catch (JsonProcessingException e) {
             e.printStackTrace();
         }
@@ -89,10 +88,9 @@ public class DataConverter {
         if (coordsString == null) {
             return (null);
         }
-        ObjectMapper mapper = new ObjectMapper();
         double[] coords = null;
         try {
-            coords = mapper.readValue(coordsString, double[].class);
+            coords = JsonMapping.COORDINATES_READER.readValue(coordsString);
         } catch (IOException e) {
             e.printStackTrace();
         }
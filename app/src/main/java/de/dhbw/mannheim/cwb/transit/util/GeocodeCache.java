@@ -0,0 +1,225 @@
+package de.dhbw.mannheim.cwb.transit.util;
+
+import android.content.Context;
+import android.location.Address;
+import android.location.Geocoder;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.dhbw.mannheim.cwb.transit.pojo.GeocodeEntry;
+
+/**
+ * Two tier cache for the results of the platform geocoder. Recently used results are kept in
+ * memory, all results are persisted in the journey database. Addresses are cached by their
+ * normalised name, coordinates are quantised to about 11 meters.
+ */
+public final class GeocodeCache {
+
+    private static final int MEMORY_CAPACITY = 256;
+
+    private static final long TTL_MILLIS = TimeUnit.DAYS.toMillis(30);
+    private static final long NOT_FOUND_TTL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private static final double COORDINATE_PRECISION = 1e4;
+
+    private static volatile GeocodeCache instance = null;
+
+    private final Context context;
+
+    private final Map<String, GeocodeEntry> memory = new LinkedHashMap<String, GeocodeEntry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, GeocodeEntry> eldest) {
+            return size() > MEMORY_CAPACITY;
+        }
+    };
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong databaseHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private GeocodeCache(Context context) {
+        this.context = context;
+
+        // remove the entries that can't be used anymore
+        TransitExecutor.DATABASE.submit(() -> dao().deleteFetchedBefore(System.currentTimeMillis() - TTL_MILLIS));
+    }
+
+    /**
+     * Returns the process wide cache
+     *
+     * @param context current context
+     * @return the cache
+     */
+    public static GeocodeCache getInstance(Context context) {
+        GeocodeCache cache = instance;
+        if (cache == null) {
+            synchronized (GeocodeCache.class) {
+                cache = instance;
+                if (cache == null) {
+                    instance = cache = new GeocodeCache(context.getApplicationContext());
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Looks up the address for the provided address string.
+     *
+     * @param locationName the address that is supposed to be searched for
+     * @return the address found or null if no matching address exists
+     * @throws IOException if the geocoder needs to be queried but is not available
+     */
+    public Address getFromLocationName(String locationName) throws IOException {
+        String key = "name:" + Locale.getDefault() + ":" + normalize(locationName);
+        return lookup(key, geocoder -> first(geocoder.getFromLocationName(locationName, 1)));
+    }
+
+    /**
+     * Looks up the address for the provided coordinates.
+     *
+     * @param latitude  the latitude that is supposed to be searched for
+     * @param longitude the longitude that is supposed to be searched for
+     * @return the address found or null if no matching address exists
+     * @throws IOException if the geocoder needs to be queried but is not available
+     */
+    public Address getFromLocation(double latitude, double longitude) throws IOException {
+        String key = "coordinates:" + Locale.getDefault() + ":" + Math.round(latitude * COORDINATE_PRECISION) + "," + Math.round(longitude * COORDINATE_PRECISION);
+        return lookup(key, geocoder -> first(geocoder.getFromLocation(latitude, longitude, 1)));
+    }
+
+    /**
+     * Resolves the provided address strings in the background so that later lookups can be
+     * answered from the cache.
+     *
+     * @param locationNames the addresses that are supposed to be searched for
+     * @return a future that completes once all addresses have been resolved
+     */
+    public TransitTask<?> prefetch(Collection<String> locationNames) {
+        return TransitExecutor.NETWORK.submit(() -> {
+            for (String locationName : locationNames) {
+                if (Thread.currentThread().isInterrupted()) return;
+                try {
+                    getFromLocationName(locationName);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    private Address lookup(String key, Query query) throws IOException {
+        long now = System.currentTimeMillis();
+
+        GeocodeEntry entry;
+        synchronized (memory) {
+            entry = memory.get(key);
+        }
+        if (entry != null && isFresh(entry, now)) {
+            memoryHits.incrementAndGet();
+            return entry.toAddress();
+        }
+
+        GeocodeDAO dao = dao();
+        entry = dao.get(key);
+        if (entry != null && isFresh(entry, now)) {
+            databaseHits.incrementAndGet();
+            remember(entry);
+            return entry.toAddress();
+        }
+
+        misses.incrementAndGet();
+        Address address = query.query(new Geocoder(context, Locale.getDefault()));
+
+        entry = GeocodeEntry.of(key, address, now);
+        remember(entry);
+        dao.insert(entry);
+
+        return address;
+    }
+
+    private void remember(GeocodeEntry entry) {
+        synchronized (memory) {
+            memory.put(entry.getKey(), entry);
+        }
+    }
+
+    private GeocodeDAO dao() {
+        return AsyncRoutePlanner.getOrInitDatabase(context).geocodeDAO();
+    }
+
+    private static boolean isFresh(GeocodeEntry entry, long now) {
+        return now - entry.getFetchedAt() < (entry.isFound() ? TTL_MILLIS : NOT_FOUND_TTL_MILLIS);
+    }
+
+    private static Address first(List<Address> addresses) {
+        return (addresses != null && addresses.size() > 0) ? addresses.get(0) : null;
+    }
+
+    /**
+     * Normalises an address string so that different spellings of the same address share the
+     * same cache entry, e.g. "Coblitzallee 1,  Mannheim" and "coblitzallee 1, mannheim"
+     *
+     * @param locationName the address string
+     * @return the normalised address
+     */
+    static String normalize(String locationName) {
+        StringBuilder builder = new StringBuilder(locationName.length());
+        boolean whitespace = false;
+
+        for (int i = 0; i < locationName.length(); i++) {
+            char c = locationName.charAt(i);
+            if (Character.isWhitespace(c)) {
+                whitespace = true;
+                continue;
+            }
+
+            if (c == ',') {
+                whitespace = false;
+            } else if (whitespace && builder.length() > 0 && builder.charAt(builder.length() - 1) != ',') {
+                builder.append(' ');
+            }
+            whitespace = false;
+            builder.append(Character.toLowerCase(c));
+        }
+
+        return builder.toString();
+    }
+
+    // ---- COUNTERS ---- //
+
+    /**
+     * @return the number of lookups that have been answered from memory
+     */
+    public long getMemoryHitCount() {
+        return memoryHits.get();
+    }
+
+    /**
+     * @return the number of lookups that have been answered from the database
+     */
+    public long getDatabaseHitCount() {
+        return databaseHits.get();
+    }
+
+    /**
+     * @return the number of lookups that needed to query the geocoder
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    // ------------------ //
+
+    private interface Query {
+        Address query(Geocoder geocoder) throws IOException;
+    }
+
+}
@@ -0,0 +1,39 @@
+package de.dhbw.mannheim.cwb.transit.util;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.Collection;
+import java.util.List;
+
+import de.dhbw.mannheim.cwb.transit.pojo.GeocodeEntry;
+
+/**
+ * Access to the persisted results of the geocoder
+ */
+@Dao
+public interface GeocodeDAO {
+    String SELECT_BY_KEY = "SELECT * FROM geocode g where g.`key` = :key";
+    String SELECT_BY_KEYS = "SELECT * FROM geocode g where g.`key` IN (:keys)";
+    String DELETE_FETCHED_BEFORE = "DELETE FROM geocode where geocode.fetchedAt < :time";
+
+    /**
+     * All queries of this DAO, used by the QueryPlanInspector
+     */
+    String[] QUERIES = {SELECT_BY_KEY, SELECT_BY_KEYS, DELETE_FETCHED_BEFORE};
+
+    @Query(SELECT_BY_KEY)
+    GeocodeEntry get(String key);
+
+    @Query(SELECT_BY_KEYS)
+    List<GeocodeEntry> getAll(Collection<String> keys);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void insert(GeocodeEntry entry);
+
+    @Query(DELETE_FETCHED_BEFORE)
+    void deleteFetchedBefore(long time);
+
+}
@@ -0,0 +1,474 @@
+package de.dhbw.mannheim.cwb.transit.util;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Converts a GTFS feed (zip file) into the compact timetable format of the {@link GtfsTimetable}.
+ * <p>
+ * The format consists of a small header with the stops, routes, trips and service calendars,
+ * which is read into memory, followed by the connections (one vehicle moving from one stop to the
+ * next) sorted by departure and an index of the connections sorted by arrival. The connections are
+ * memory mapped by the timetable, so they do not need to fit onto the heap.
+ * <p>
+ * The import only keeps the header tables on the heap. The connections are written to a temporary
+ * file while stop_times.txt is read and sorted into the timetable by counting sorts over their
+ * times, with both files memory mapped.
+ * <p>
+ * The rows of stop_times.txt have to be grouped by trip, as it is the case for the feeds of the
+ * German transport associations. The other tables may be stored in any order in the zip file.
+ */
+public final class GtfsImporter {
+
+    static final int MAGIC = 0x47544653; // "GTFS"
+    static final int VERSION = 1;
+
+    /**
+     * the size in bytes of a single connection: departure stop, arrival stop, trip, departure
+     * time and arrival time
+     */
+    static final int CONNECTION_SIZE = 5 * 4;
+
+    private final Map<String, Integer> stopIndices = new HashMap<>();
+    private final List<String[]> stops = new ArrayList<>(); // id, name, lat, lon
+
+    private final Map<String, Integer> routeIndices = new HashMap<>();
+    private final List<String[]> routes = new ArrayList<>(); // name, category
+
+    private final Map<String, Integer> serviceIndices = new HashMap<>();
+    private final List<int[]> services = new ArrayList<>(); // weekdays, start, end
+    private final List<int[]> exceptions = new ArrayList<>(); // service, date, type
+
+    private final Map<String, Integer> tripIndices = new HashMap<>();
+    private final List<int[]> trips = new ArrayList<>(); // route, service
+
+    // the connections in the order of stop_times.txt, in the layout of the timetable
+    private final File connectionsFile;
+    private int connectionCount = 0;
+    private int maxTime = 0;
+
+    private GtfsImporter(File connectionsFile) {
+        this.connectionsFile = connectionsFile;
+    }
+
+    /**
+     * Reads the GTFS feed and writes the timetable to the target file. The feed is copied next to
+     * the target first, so that its tables can be read in the order they depend on each other.
+     *
+     * @param feed   the zip file of the GTFS feed
+     * @param target the file the timetable is written to, it is replaced atomically
+     * @throws IOException if the feed can't be read or is malformed
+     */
+    public static void importFeed(InputStream feed, File target) throws IOException {
+        File copy = new File(target.getPath() + ".zip.tmp");
+        try {
+            try (OutputStream out = new FileOutputStream(copy)) {
+                byte[] buffer = new byte[1 << 16];
+                for (int read; (read = feed.read(buffer)) != -1; ) out.write(buffer, 0, read);
+            }
+            importFeed(copy, target);
+        } finally {
+            if (copy.exists() && !copy.delete()) System.err.println("Could not delete " + copy);
+        }
+    }
+
+    /**
+     * Reads the GTFS feed and writes the timetable to the target file
+     *
+     * @param feed   the zip file of the GTFS feed
+     * @param target the file the timetable is written to, it is replaced atomically
+     * @throws IOException if the feed can't be read or is malformed
+     */
+    public static void importFeed(File feed, File target) throws IOException {
+        GtfsImporter importer = new GtfsImporter(new File(target.getPath() + ".connections.tmp"));
+        File temp = new File(target.getPath() + ".tmp");
+
+        try (ZipFile zip = new ZipFile(feed)) {
+            // the tables are looked up by name, they may be stored in a folder of the zip file
+            Map<String, ZipEntry> entries = new HashMap<>();
+            for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                ZipEntry entry = e.nextElement();
+                if (!entry.isDirectory()) entries.put(new File(entry.getName()).getName(), entry);
+            }
+
+            for (String name : new String[]{"stops.txt", "routes.txt", "trips.txt", "stop_times.txt"}) {
+                if (!entries.containsKey(name)) throw new IOException("The feed does not contain " + name);
+            }
+
+            importer.readTables(zip, entries);
+            try (Reader reader = open(zip, entries.get("stop_times.txt"));
+                 DataOutputStream connections = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(importer.connectionsFile), 1 << 16))) {
+                importer.readStopTimes(reader, connections);
+            }
+
+            importer.write(temp);
+            if (!temp.renameTo(target)) {
+                if (!target.delete() || !temp.renameTo(target))
+                    throw new IOException("The timetable could not be moved to " + target);
+            }
+        } finally {
+            for (File file : new File[]{importer.connectionsFile, temp}) {
+                if (file.exists() && !file.delete()) System.err.println("Could not delete " + file);
+            }
+        }
+    }
+
+    private static Reader open(ZipFile zip, ZipEntry entry) throws IOException {
+        return new InputStreamReader(zip.getInputStream(entry), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the tables stop_times.txt refers to, the services have to be known before the trips
+     */
+    private void readTables(ZipFile zip, Map<String, ZipEntry> entries) throws IOException {
+        try (Reader reader = open(zip, entries.get("stops.txt"))) {
+            CsvReader csv = new CsvReader(reader);
+            int id = csv.column("stop_id"), name = csv.column("stop_name"), lat = csv.column("stop_lat"), lon = csv.column("stop_lon");
+            for (String[] row; (row = csv.next()) != null; ) {
+                stopIndices.put(row[id], stops.size());
+                stops.add(new String[]{row[id], row[name], row[lat], row[lon]});
+            }
+        }
+
+        try (Reader reader = open(zip, entries.get("routes.txt"))) {
+            CsvReader csv = new CsvReader(reader);
+            int id = csv.column("route_id");
+            int shortName = csv.column("route_short_name"), longName = csv.column("route_long_name"), type = csv.column("route_type");
+            for (String[] row; (row = csv.next()) != null; ) {
+                String routeName = shortName >= 0 && !row[shortName].isEmpty() ? row[shortName] : longName >= 0 ? row[longName] : "";
+                routeIndices.put(row[id], routes.size());
+                routes.add(new String[]{routeName, category(row[type])});
+            }
+        }
+
+        if (entries.containsKey("calendar.txt")) try (Reader reader = open(zip, entries.get("calendar.txt"))) {
+            CsvReader csv = new CsvReader(reader);
+            int id = csv.column("service_id");
+            int[] days = {csv.column("monday"), csv.column("tuesday"), csv.column("wednesday"), csv.column("thursday"),
+                    csv.column("friday"), csv.column("saturday"), csv.column("sunday")};
+            int start = csv.column("start_date"), end = csv.column("end_date");
+            for (String[] row; (row = csv.next()) != null; ) {
+                int weekdays = 0;
+                for (int i = 0; i < days.length; i++) if ("1".equals(row[days[i]])) weekdays |= 1 << i;
+                services.add(new int[]{weekdays, Integer.parseInt(row[start]), Integer.parseInt(row[end])});
+                serviceIndices.put(row[id], services.size() - 1);
+            }
+        }
+
+        if (entries.containsKey("calendar_dates.txt")) try (Reader reader = open(zip, entries.get("calendar_dates.txt"))) {
+            CsvReader csv = new CsvReader(reader);
+            int id = csv.column("service_id");
+            int date = csv.column("date"), type = csv.column("exception_type");
+            for (String[] row; (row = csv.next()) != null; ) {
+                exceptions.add(new int[]{service(row[id]), Integer.parseInt(row[date]), Integer.parseInt(row[type])});
+            }
+        }
+
+        try (Reader reader = open(zip, entries.get("trips.txt"))) {
+            CsvReader csv = new CsvReader(reader);
+            int id = csv.column("trip_id");
+            int route = csv.column("route_id"), service = csv.column("service_id");
+            for (String[] row; (row = csv.next()) != null; ) {
+                Integer routeIndex = routeIndices.get(row[route]);
+                if (routeIndex == null) throw new IOException("Unknown route " + row[route]);
+                tripIndices.put(row[id], trips.size());
+                trips.add(new int[]{routeIndex, service(row[service])});
+            }
+        }
+    }
+
+    /**
+     * Returns the index of a service, services that are only defined by calendar_dates.txt are
+     * not active on any weekday
+     */
+    private int service(String id) {
+        Integer index = serviceIndices.get(id);
+        if (index == null) {
+            services.add(new int[]{0, 0, 0});
+            serviceIndices.put(id, index = services.size() - 1);
+        }
+        return index;
+    }
+
+    private void readStopTimes(Reader reader, DataOutputStream connections) throws IOException {
+        CsvReader csv = new CsvReader(reader);
+        int tripColumn = csv.column("trip_id"), stop = csv.column("stop_id"), sequence = csv.column("stop_sequence");
+        int arrival = csv.column("arrival_time"), departure = csv.column("departure_time");
+
+        BitSet finished = new BitSet(trips.size());
+        List<int[]> current = new ArrayList<>(); // sequence, stop, arrival, departure
+        int currentTrip = -1;
+
+        for (String[] row; ; ) {
+            row = csv.next();
+
+            Integer trip = row == null ? null : tripIndices.get(row[tripColumn]);
+            if (row != null && trip == null) throw new IOException("Unknown trip " + row[tripColumn]);
+
+            if (row == null || trip != currentTrip) {
+                addConnections(currentTrip, current, connections);
+                current.clear();
+                if (row == null) break;
+
+                if (finished.get(trip))
+                    throw new IOException("stop_times.txt is not grouped by trip, " + row[tripColumn] + " appears twice");
+                finished.set(trip);
+                currentTrip = trip;
+            }
+
+            Integer stopIndex = stopIndices.get(row[stop]);
+            if (stopIndex == null) throw new IOException("Unknown stop " + row[stop]);
+            // stops without times are interpolated stops, they are skipped
+            if (row[arrival].isEmpty() && row[departure].isEmpty()) continue;
+
+            String arrivalTime = row[arrival].isEmpty() ? row[departure] : row[arrival];
+            String departureTime = row[departure].isEmpty() ? row[arrival] : row[departure];
+            current.add(new int[]{Integer.parseInt(row[sequence]), stopIndex, parseTime(arrivalTime), parseTime(departureTime)});
+        }
+    }
+
+    private void addConnections(int trip, List<int[]> stopTimes, DataOutputStream connections) throws IOException {
+        if (stopTimes.size() < 2) return;
+
+        int[][] sorted = stopTimes.toArray(new int[0][]);
+        Arrays.sort(sorted, (a, b) -> Integer.compare(a[0], b[0]));
+
+        for (int i = 1; i < sorted.length; i++) {
+            int departureTime = sorted[i - 1][3], arrivalTime = sorted[i][2];
+            if (departureTime < 0 || arrivalTime < 0) throw new IOException("Negative time in trip " + trip);
+
+            connections.writeInt(sorted[i - 1][1]);
+            connections.writeInt(sorted[i][1]);
+            connections.writeInt(trip);
+            connections.writeInt(departureTime);
+            connections.writeInt(arrivalTime);
+            connectionCount++;
+            maxTime = Math.max(maxTime, Math.max(departureTime, arrivalTime));
+        }
+    }
+
+    private void write(File file) throws IOException {
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+
+        header.writeInt(stops.size());
+        for (String[] stop : stops) {
+            header.writeUTF(stop[0]);
+            header.writeUTF(stop[1]);
+            header.writeDouble(Double.parseDouble(stop[2]));
+            header.writeDouble(Double.parseDouble(stop[3]));
+        }
+
+        header.writeInt(routes.size());
+        for (String[] route : routes) {
+            header.writeUTF(route[0]);
+            header.writeUTF(route[1]);
+        }
+
+        header.writeInt(trips.size());
+        for (int[] trip : trips) {
+            header.writeInt(trip[0]);
+            header.writeInt(trip[1]);
+        }
+
+        header.writeInt(services.size());
+        for (int[] service : services) {
+            header.writeInt(service[0]);
+            header.writeInt(service[1]);
+            header.writeInt(service[2]);
+        }
+
+        header.writeInt(exceptions.size());
+        for (int[] exception : exceptions) {
+            header.writeInt(exception[0]);
+            header.writeInt(exception[1]);
+            header.writeInt(exception[2]);
+        }
+        header.flush();
+
+        int count = connectionCount;
+        long connectionsSize = (long) count * CONNECTION_SIZE;
+
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw");
+             RandomAccessFile in = new RandomAccessFile(connectionsFile, "r")) {
+            out.setLength(0);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(headerBytes.size());
+            out.write(headerBytes.toByteArray());
+            out.writeInt(count);
+
+            long offset = out.getFilePointer();
+            out.setLength(offset + connectionsSize + count * 4L);
+
+            IntBuffer source = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, connectionsSize).asIntBuffer();
+            MappedByteBuffer connectionsBuffer = out.getChannel().map(FileChannel.MapMode.READ_WRITE, offset, connectionsSize);
+            MappedByteBuffer arrivalBuffer = out.getChannel().map(FileChannel.MapMode.READ_WRITE, offset + connectionsSize, count * 4L);
+            IntBuffer connections = connectionsBuffer.asIntBuffer();
+            IntBuffer arrivalOrder = arrivalBuffer.asIntBuffer();
+
+            // the connections are sorted by departure, connections departing at the same time keep
+            // the order of stop_times.txt
+            int[] next = new int[maxTime + 1];
+            for (int c = 0; c < count; c++) next[source.get(c * 5 + 3)]++;
+            toOffsets(next);
+            for (int c = 0; c < count; c++) {
+                int position = next[source.get(c * 5 + 3)]++;
+                for (int i = 0; i < 5; i++) connections.put(position * 5 + i, source.get(c * 5 + i));
+            }
+
+            // the arrival order refers to the positions in the departure order
+            Arrays.fill(next, 0);
+            for (int c = 0; c < count; c++) next[connections.get(c * 5 + 4)]++;
+            toOffsets(next);
+            for (int c = 0; c < count; c++) arrivalOrder.put(next[connections.get(c * 5 + 4)]++, c);
+
+            connectionsBuffer.force();
+            arrivalBuffer.force();
+        }
+    }
+
+    /**
+     * Replaces the counts of a counting sort by the index of the first element of each value
+     */
+    private static void toOffsets(int[] counts) {
+        for (int i = 0, sum = 0; i < counts.length; i++) {
+            int count = counts[i];
+            counts[i] = sum;
+            sum += count;
+        }
+    }
+
+    /**
+     * Parses a GTFS time (HH:MM:SS), which may exceed 24 hours for trips after midnight
+     *
+     * @return the seconds since the start of the service day
+     */
+    static int parseTime(String time) throws IOException {
+        int first = time.indexOf(':'), second = time.indexOf(':', first + 1);
+        if (first < 0 || second < 0) throw new IOException("Invalid time " + time);
+
+        return Integer.parseInt(time.substring(0, first).trim()) * 3600
+                + Integer.parseInt(time.substring(first + 1, second)) * 60
+                + Integer.parseInt(time.substring(second + 1).trim());
+    }
+
+    /**
+     * Maps the GTFS route type to the category names of the RMV API
+     */
+    private static String category(String type) {
+        switch (type) {
+            case "0":
+                return "Tram";
+            case "1":
+                return "U-Bahn";
+            case "2":
+                return "Zug";
+            case "3":
+                return "Bus";
+            case "4":
+                return "Schiff";
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * Reads the rows of a GTFS file (RFC 4180 CSV with a header row)
+     */
+    private static class CsvReader {
+        private final BufferedReader reader;
+        private final Map<String, Integer> columns = new HashMap<>();
+        private final List<String> fields = new ArrayList<>();
+        private final StringBuilder field = new StringBuilder();
+
+        CsvReader(Reader reader) throws IOException {
+            this.reader = new BufferedReader(reader, 1 << 16);
+
+            String[] header = next();
+            if (header == null) throw new IOException("Missing header row");
+            for (int i = 0; i < header.length; i++) {
+                // the first column may start with a byte order mark
+                columns.put(header[i].replace("\uFEFF", "").trim(), i);
+            }
+        }
+
+        /**
+         * @return the index of the column or -1 if the file does not contain it
+         */
+        int column(String name) {
+            Integer index = columns.get(name);
+            return index == null ? -1 : index;
+        }
+
+        String[] next() throws IOException {
+            String line;
+            do {
+                line = reader.readLine();
+                if (line == null) return null;
+            } while (line.isEmpty());
+
+            fields.clear();
+            field.setLength(0);
+            boolean quoted = false;
+            for (int i = 0; ; i++) {
+                if (i == line.length()) {
+                    if (!quoted) break;
+                    // a quoted field containing a line break
+                    String next = reader.readLine();
+                    if (next == null) break;
+                    field.append('\n');
+                    line = next;
+                    i = -1;
+                    continue;
+                }
+
+                char c = line.charAt(i);
+                if (quoted) {
+                    if (c == '"') {
+                        if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                            field.append('"');
+                            i++;
+                        } else quoted = false;
+                    } else field.append(c);
+                } else if (c == '"') {
+                    quoted = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                } else field.append(c);
+            }
+            fields.add(field.toString());
+
+            // missing trailing columns are treated as empty
+            int size = Math.max(fields.size(), columns.size());
+            String[] row = new String[size];
+            for (int i = 0; i < size; i++) row[i] = i < fields.size() ? fields.get(i) : "";
+            return row;
+        }
+    }
+
+}
@@ -0,0 +1,498 @@
+package de.dhbw.mannheim.cwb.transit.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * An offline timetable that has been created by the {@link GtfsImporter}. The stops, routes and
+ * service calendars are held in memory, the connections are memory mapped.
+ * <p>
+ * Routes are searched with the Connection Scan Algorithm: the connections are scanned once in the
+ * order of their departure (or in reverse order of their arrival for arrival searches) and every
+ * connection that can be reached improves the arrival time at its target stop. Changing trips
+ * requires {@value #TRANSFER_SECONDS} seconds; walking is only considered between the addresses
+ * and the stops.
+ * <p>
+ * Only the trips of the service day of the search are considered, so trips of the previous day
+ * that run after midnight are not found.
+ */
+public final class GtfsTimetable {
+
+    /**
+     * the time in seconds that is needed to change between two trips
+     */
+    static final int TRANSFER_SECONDS = 120;
+
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    /**
+     * the number of connections that are scanned between two checks of the interrupted flag
+     */
+    private static final int INTERRUPT_CHECK_INTERVAL = 1 << 14;
+
+    private static final double EARTH_RADIUS_METERS = 6_371_000;
+
+    private final String[] stopIds;
+    private final String[] stopNames;
+    private final double[] stopLats;
+    private final double[] stopLons;
+
+    private final String[] routeNames;
+    private final String[] routeCategories;
+
+    private final int[] tripRoutes;
+    private final int[] tripServices;
+
+    private final int[] serviceWeekdays;
+    private final int[] serviceStarts;
+    private final int[] serviceEnds;
+    private final int[] exceptionServices;
+    private final int[] exceptionDates;
+    private final int[] exceptionTypes;
+
+    // departure stop, arrival stop, trip, departure time, arrival time; ordered by departure
+    private final IntBuffer connections;
+    // the connections ordered by their arrival
+    private final IntBuffer arrivalOrder;
+    private final int connectionCount;
+
+    private GtfsTimetable(DataInputStream header, IntBuffer connections, IntBuffer arrivalOrder, int connectionCount) throws IOException {
+        int stopCount = header.readInt();
+        stopIds = new String[stopCount];
+        stopNames = new String[stopCount];
+        stopLats = new double[stopCount];
+        stopLons = new double[stopCount];
+        for (int i = 0; i < stopCount; i++) {
+            stopIds[i] = header.readUTF();
+            stopNames[i] = header.readUTF();
+            stopLats[i] = header.readDouble();
+            stopLons[i] = header.readDouble();
+        }
+
+        int routeCount = header.readInt();
+        routeNames = new String[routeCount];
+        routeCategories = new String[routeCount];
+        for (int i = 0; i < routeCount; i++) {
+            routeNames[i] = header.readUTF();
+            routeCategories[i] = header.readUTF();
+        }
+
+        int tripCount = header.readInt();
+        tripRoutes = new int[tripCount];
+        tripServices = new int[tripCount];
+        for (int i = 0; i < tripCount; i++) {
+            tripRoutes[i] = header.readInt();
+            tripServices[i] = header.readInt();
+        }
+
+        int serviceCount = header.readInt();
+        serviceWeekdays = new int[serviceCount];
+        serviceStarts = new int[serviceCount];
+        serviceEnds = new int[serviceCount];
+        for (int i = 0; i < serviceCount; i++) {
+            serviceWeekdays[i] = header.readInt();
+            serviceStarts[i] = header.readInt();
+            serviceEnds[i] = header.readInt();
+        }
+
+        int exceptionCount = header.readInt();
+        exceptionServices = new int[exceptionCount];
+        exceptionDates = new int[exceptionCount];
+        exceptionTypes = new int[exceptionCount];
+        for (int i = 0; i < exceptionCount; i++) {
+            exceptionServices[i] = header.readInt();
+            exceptionDates[i] = header.readInt();
+            exceptionTypes[i] = header.readInt();
+        }
+
+        this.connections = connections;
+        this.arrivalOrder = arrivalOrder;
+        this.connectionCount = connectionCount;
+    }
+
+    /**
+     * Opens a timetable file. Only the header is read, the connections are mapped into memory.
+     *
+     * @param file the file that has been written by the {@link GtfsImporter}
+     * @return the timetable
+     * @throws IOException if the file can't be read or has an unknown format
+     */
+    public static GtfsTimetable open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.readInt() != GtfsImporter.MAGIC || raf.readInt() != GtfsImporter.VERSION)
+                throw new IOException(file + " is not a timetable of this version");
+
+            byte[] header = new byte[raf.readInt()];
+            raf.readFully(header);
+            int count = raf.readInt();
+
+            FileChannel channel = raf.getChannel();
+            long offset = raf.getFilePointer();
+            long connectionsSize = (long) count * GtfsImporter.CONNECTION_SIZE;
+            // the mappings stay valid after the channel has been closed
+            IntBuffer connections = channel.map(FileChannel.MapMode.READ_ONLY, offset, connectionsSize).asIntBuffer();
+            IntBuffer arrivalOrder = channel.map(FileChannel.MapMode.READ_ONLY, offset + connectionsSize, count * 4L).asIntBuffer();
+
+            return new GtfsTimetable(new DataInputStream(new ByteArrayInputStream(header)), connections, arrivalOrder, count);
+        }
+    }
+
+    // ---- STOPS ---- //
+
+    public String getStopId(int stop) {
+        return stopIds[stop];
+    }
+
+    public String getStopName(int stop) {
+        return stopNames[stop];
+    }
+
+    public double getStopLat(int stop) {
+        return stopLats[stop];
+    }
+
+    public double getStopLon(int stop) {
+        return stopLons[stop];
+    }
+
+    /**
+     * Finds the stops near a position
+     *
+     * @param lat       the latitude of the position
+     * @param lon       the longitude of the position
+     * @param maxMeters the maximal distance of the stops
+     * @param limit     the maximal number of stops
+     * @return the indices of the stops ordered by their distance
+     */
+    public int[] findStops(double lat, double lon, double maxMeters, int limit) {
+        // stops are compared by their squared distance on the equirectangular projection
+        double scale = Math.cos(Math.toRadians(lat));
+        double maxDegrees = Math.toDegrees(maxMeters / EARTH_RADIUS_METERS);
+        double max = maxDegrees * maxDegrees;
+
+        long[] found = new long[0];
+        int size = 0;
+        for (int i = 0; i < stopLats.length; i++) {
+            double dLat = stopLats[i] - lat, dLon = (stopLons[i] - lon) * scale;
+            double distance = dLat * dLat + dLon * dLon;
+            if (distance > max) continue;
+
+            if (size == found.length) found = Arrays.copyOf(found, Math.max(8, size * 2));
+            // the distance is ordered by its bits as long as it is positive
+            found[size++] = ((long) (distance / max * Integer.MAX_VALUE) << 32) | i;
+        }
+
+        Arrays.sort(found, 0, size);
+        int[] stops = new int[Math.min(size, limit)];
+        for (int i = 0; i < stops.length; i++) stops[i] = (int) found[i];
+        return stops;
+    }
+
+    /**
+     * @return the distance in meters between the stop and the position
+     */
+    public double distance(int stop, double lat, double lon) {
+        double lat1 = Math.toRadians(stopLats[stop]), lat2 = Math.toRadians(lat);
+        double dLat = lat2 - lat1, dLon = Math.toRadians(lon - stopLons[stop]);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(lat1) * Math.cos(lat2) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    // ---- CONNECTIONS ---- //
+
+    public int getDepartureStop(int connection) {
+        return connections.get(connection * 5);
+    }
+
+    public int getArrivalStop(int connection) {
+        return connections.get(connection * 5 + 1);
+    }
+
+    public int getTrip(int connection) {
+        return connections.get(connection * 5 + 2);
+    }
+
+    /**
+     * @return the departure time in seconds since the start of the service day
+     */
+    public int getDepartureTime(int connection) {
+        return connections.get(connection * 5 + 3);
+    }
+
+    /**
+     * @return the arrival time in seconds since the start of the service day
+     */
+    public int getArrivalTime(int connection) {
+        return connections.get(connection * 5 + 4);
+    }
+
+    public String getRouteName(int trip) {
+        return routeNames[tripRoutes[trip]];
+    }
+
+    public String getRouteCategory(int trip) {
+        return routeCategories[tripRoutes[trip]];
+    }
+
+    // ---- SEARCH ---- //
+
+    /**
+     * Determines the services that run on a day
+     *
+     * @param date the service day
+     * @return whether each service runs on the day
+     */
+    public boolean[] getActiveServices(LocalDate date) {
+        int day = date.getYear() * 10000 + date.getMonthValue() * 100 + date.getDayOfMonth();
+        int weekday = 1 << (date.getDayOfWeek().getValue() - 1);
+
+        boolean[] active = new boolean[serviceWeekdays.length];
+        for (int i = 0; i < active.length; i++) {
+            active[i] = (serviceWeekdays[i] & weekday) != 0 && serviceStarts[i] <= day && day <= serviceEnds[i];
+        }
+        for (int i = 0; i < exceptionDates.length; i++) {
+            // 1: the service has been added, 2: the service has been removed
+            if (exceptionDates[i] == day) active[exceptionServices[i]] = exceptionTypes[i] == 1;
+        }
+        return active;
+    }
+
+    /**
+     * Finds the journey that arrives first at one of the target stops
+     *
+     * @param active      the services of the day, see {@link #getActiveServices(LocalDate)}
+     * @param sources     the stops the journey may start at
+     * @param sourceWalk  the time in seconds to walk to each source stop
+     * @param targets     the stops the journey may end at
+     * @param targetWalk  the time in seconds to walk from each target stop
+     * @param time        the departure time in seconds since the start of the service day
+     * @return the journey or null if no target can be reached on that day
+     * @throws InterruptedIOException if the thread has been interrupted
+     */
+    public Journey findEarliestArrival(boolean[] active, int[] sources, int[] sourceWalk, int[] targets, int[] targetWalk, int time) throws InterruptedIOException {
+        int[] arrival = new int[stopLats.length];
+        int[] inConnection = new int[stopLats.length];
+        int[] enterConnection = new int[stopLats.length];
+        int[] tripEnter = new int[tripRoutes.length];
+        Arrays.fill(arrival, UNREACHED);
+        Arrays.fill(inConnection, -1);
+        Arrays.fill(tripEnter, -1);
+
+        for (int i = 0; i < sources.length; i++) {
+            arrival[sources[i]] = Math.min(arrival[sources[i]], time + sourceWalk[i]);
+        }
+
+        int best = UNREACHED, bestTarget = -1;
+        for (int c = firstDepartureAfter(time); c < connectionCount; c++) {
+            if ((c & (INTERRUPT_CHECK_INTERVAL - 1)) == 0 && Thread.currentThread().isInterrupted())
+                throw new InterruptedIOException();
+
+            int departure = getDepartureTime(c);
+            if (departure >= best) break;
+
+            int trip = getTrip(c);
+            if (!active[tripServices[trip]]) continue;
+
+            if (tripEnter[trip] < 0) {
+                int from = getDepartureStop(c);
+                if (arrival[from] == UNREACHED) continue;
+                int ready = inConnection[from] < 0 ? arrival[from] : arrival[from] + TRANSFER_SECONDS;
+                if (ready > departure) continue;
+                tripEnter[trip] = c;
+            }
+
+            int to = getArrivalStop(c), arrivalTime = getArrivalTime(c);
+            if (arrivalTime < arrival[to]) {
+                arrival[to] = arrivalTime;
+                inConnection[to] = c;
+                enterConnection[to] = tripEnter[trip];
+
+                for (int i = 0; i < targets.length; i++) {
+                    if (targets[i] == to && arrivalTime + targetWalk[i] < best) {
+                        best = arrivalTime + targetWalk[i];
+                        bestTarget = i;
+                    }
+                }
+            }
+        }
+        if (bestTarget < 0) return null;
+
+        // the legs are collected from the target back to the source
+        int[] enter = new int[4], exit = new int[4];
+        int legs = 0;
+        for (int stop = targets[bestTarget]; inConnection[stop] >= 0; stop = getDepartureStop(enter[legs - 1])) {
+            if (legs == stopLats.length) return null;
+            if (legs == enter.length) {
+                enter = Arrays.copyOf(enter, legs * 2);
+                exit = Arrays.copyOf(exit, legs * 2);
+            }
+            enter[legs] = enterConnection[stop];
+            exit[legs] = inConnection[stop];
+            legs++;
+        }
+        reverse(enter, legs);
+        reverse(exit, legs);
+
+        int source = indexOf(sources, getDepartureStop(enter[0]));
+        return source < 0 ? null : new Journey(source, bestTarget, Arrays.copyOf(enter, legs), Arrays.copyOf(exit, legs),
+                getDepartureTime(enter[0]) - sourceWalk[source], best);
+    }
+
+    /**
+     * Finds the journey that departs last from one of the source stops
+     *
+     * @param active      the services of the day, see {@link #getActiveServices(LocalDate)}
+     * @param sources     the stops the journey may start at
+     * @param sourceWalk  the time in seconds to walk to each source stop
+     * @param targets     the stops the journey may end at
+     * @param targetWalk  the time in seconds to walk from each target stop
+     * @param time        the arrival time in seconds since the start of the service day
+     * @return the journey or null if no target can be reached in time on that day
+     * @throws InterruptedIOException if the thread has been interrupted
+     */
+    public Journey findLatestDeparture(boolean[] active, int[] sources, int[] sourceWalk, int[] targets, int[] targetWalk, int time) throws InterruptedIOException {
+        int[] departure = new int[stopLats.length];
+        int[] outConnection = new int[stopLats.length];
+        int[] exitConnection = new int[stopLats.length];
+        int[] tripExit = new int[tripRoutes.length];
+        Arrays.fill(departure, -UNREACHED);
+        Arrays.fill(outConnection, -1);
+        Arrays.fill(tripExit, -1);
+
+        for (int i = 0; i < targets.length; i++) {
+            departure[targets[i]] = Math.max(departure[targets[i]], time - targetWalk[i]);
+        }
+
+        int best = -UNREACHED, bestSource = -1;
+        for (int k = lastArrivalBefore(time), checked = 0; k >= 0; k--, checked++) {
+            if ((checked & (INTERRUPT_CHECK_INTERVAL - 1)) == 0 && Thread.currentThread().isInterrupted())
+                throw new InterruptedIOException();
+
+            int c = arrivalOrder.get(k);
+            int arrivalTime = getArrivalTime(c);
+            // every journey using this connection departs before its arrival
+            if (arrivalTime <= best) break;
+
+            int trip = getTrip(c);
+            if (!active[tripServices[trip]]) continue;
+
+            if (tripExit[trip] < 0) {
+                int to = getArrivalStop(c);
+                if (departure[to] == -UNREACHED) continue;
+                int latest = outConnection[to] < 0 ? departure[to] : departure[to] - TRANSFER_SECONDS;
+                if (latest < arrivalTime) continue;
+                tripExit[trip] = c;
+            }
+
+            int from = getDepartureStop(c), departureTime = getDepartureTime(c);
+            if (departureTime > departure[from]) {
+                departure[from] = departureTime;
+                outConnection[from] = c;
+                exitConnection[from] = tripExit[trip];
+
+                for (int i = 0; i < sources.length; i++) {
+                    if (sources[i] == from && departureTime - sourceWalk[i] > best) {
+                        best = departureTime - sourceWalk[i];
+                        bestSource = i;
+                    }
+                }
+            }
+        }
+        if (bestSource < 0) return null;
+
+        int[] enter = new int[4], exit = new int[4];
+        int legs = 0;
+        for (int stop = sources[bestSource]; outConnection[stop] >= 0; stop = getArrivalStop(exit[legs - 1])) {
+            if (legs == stopLats.length) return null;
+            if (legs == enter.length) {
+                enter = Arrays.copyOf(enter, legs * 2);
+                exit = Arrays.copyOf(exit, legs * 2);
+            }
+            enter[legs] = outConnection[stop];
+            exit[legs] = exitConnection[stop];
+            legs++;
+        }
+
+        int target = indexOf(targets, getArrivalStop(exit[legs - 1]));
+        return target < 0 ? null : new Journey(bestSource, target, Arrays.copyOf(enter, legs), Arrays.copyOf(exit, legs),
+                best, getArrivalTime(exit[legs - 1]) + targetWalk[target]);
+    }
+
+    /**
+     * @return the first connection that departs at or after the time
+     */
+    private int firstDepartureAfter(int time) {
+        int low = 0, high = connectionCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getDepartureTime(mid) < time) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * @return the position in the arrival order of the last connection that arrives at or before
+     * the time
+     */
+    private int lastArrivalBefore(int time) {
+        int low = 0, high = connectionCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getArrivalTime(arrivalOrder.get(mid)) <= time) low = mid + 1;
+            else high = mid;
+        }
+        return low - 1;
+    }
+
+    private static void reverse(int[] values, int length) {
+        for (int i = 0, j = length - 1; i < j; i++, j--) {
+            int value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+    }
+
+    private static int indexOf(int[] values, int value) {
+        for (int i = 0; i < values.length; i++) if (values[i] == value) return i;
+        return -1;
+    }
+
+    /**
+     * A journey between two stops that uses one or more trips
+     */
+    public static final class Journey {
+        /**
+         * the index of the source and target stop in the arrays of the search
+         */
+        public final int source, target;
+        /**
+         * the connections at which each trip is entered and exited
+         */
+        public final int[] enter, exit;
+        /**
+         * the time in seconds since the start of the service day at which the journey starts at
+         * the origin address and ends at the destination address, including the walks
+         */
+        public final int departure, arrival;
+
+        Journey(int source, int target, int[] enter, int[] exit, int departure, int arrival) {
+            this.source = source;
+            this.target = target;
+            this.enter = enter;
+            this.exit = exit;
+            this.departure = departure;
+            this.arrival = arrival;
+        }
+    }
+
+}
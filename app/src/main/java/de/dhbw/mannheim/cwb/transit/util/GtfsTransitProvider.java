@@ -0,0 +1,286 @@
+package de.dhbw.mannheim.cwb.transit.util;
+
+import android.content.Context;
+import android.location.Address;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import de.dhbw.mannheim.cwb.transit.pojo.Leg;
+import de.dhbw.mannheim.cwb.transit.pojo.LegList;
+import de.dhbw.mannheim.cwb.transit.pojo.Stop;
+import de.dhbw.mannheim.cwb.transit.pojo.Trip;
+import de.dhbw.mannheim.cwb.transit.pojo.TripData;
+
+/**
+ * Provides routes of an offline GTFS timetable, so that routes can be found without a connection
+ * to the RMV API. The timetable has to be imported with {@link #importFeed(Context, InputStream)}
+ * once; afterwards the provider is registered on every start of the app.
+ * <p>
+ * The times of the feed are interpreted in the time zone of the device.
+ */
+public class GtfsTransitProvider implements TransitProvider {
+
+    public static final String NAME = "GTFS";
+
+    private static final String TIMETABLE_FILE = "gtfs/timetable.bin";
+
+    /**
+     * the maximal distance in meters between an address and the stops it may use
+     */
+    private static final double MAX_WALK_METERS = 1000;
+
+    /**
+     * the maximal number of stops that are considered near an address
+     */
+    private static final int MAX_STOPS = 5;
+
+    /**
+     * walking speed in meters per second, the beeline is extended by a third for the actual way
+     */
+    private static final double WALK_SPEED = 1.2 / (4.0 / 3.0);
+
+    /**
+     * walks to or from a stop that are shorter are not shown as separate legs
+     */
+    private static final int MIN_WALK_SECONDS = 60;
+
+    /**
+     * the number of trips that are searched for each query
+     */
+    private static final int RESULTS = 3;
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private static GtfsTransitProvider registered = null;
+
+    private final File file;
+    private GtfsTimetable timetable = null;
+
+    private GtfsTransitProvider(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Registers the provider at the {@link TransitRouter} if a timetable has been imported. The
+     * timetable is only opened by the first search.
+     *
+     * @param context current context
+     */
+    public static synchronized void registerIfAvailable(Context context) {
+        File file = getTimetableFile(context);
+        if (registered == null && file.exists()) {
+            registered = new GtfsTransitProvider(file);
+            TransitRouter.register(registered);
+        }
+    }
+
+    /**
+     * Imports a GTFS feed on the calling thread and registers the provider. An existing timetable
+     * is replaced.
+     *
+     * @param context current context
+     * @param feed    the zip file of the GTFS feed
+     * @throws IOException if the feed can't be read
+     */
+    public static void importFeed(Context context, InputStream feed) throws IOException {
+        File file = getTimetableFile(context);
+        File directory = file.getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs())
+            throw new IOException("Could not create " + directory);
+
+        GtfsImporter.importFeed(feed, file);
+
+        synchronized (GtfsTransitProvider.class) {
+            if (registered != null) TransitRouter.unregister(registered);
+            registered = null;
+        }
+        registerIfAvailable(context);
+    }
+
+    /**
+     * @param context current context
+     * @return whether a timetable has been imported
+     */
+    public static boolean hasTimetable(Context context) {
+        return getTimetableFile(context).exists();
+    }
+
+    private static File getTimetableFile(Context context) {
+        return new File(context.getFilesDir(), TIMETABLE_FILE);
+    }
+
+    private synchronized GtfsTimetable getTimetable() throws IOException {
+        if (timetable == null) timetable = GtfsTimetable.open(file);
+        return timetable;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public long getDeadlineMillis() {
+        return TimeUnit.SECONDS.toMillis(5);
+    }
+
+    @Override
+    public TripData findTrips(Context context, Address origin, Address destination, boolean searchForArrival, long time, String scrollContext) throws IOException {
+        // the scroll contexts contain the search direction and time of the next page
+        if (scrollContext != null) {
+            String[] parts = scrollContext.split(":", 2);
+            try {
+                searchForArrival = "a".equals(parts[0]);
+                time = Long.parseLong(parts[1]);
+            } catch (RuntimeException e) {
+                throw new IOException("Invalid scroll context " + scrollContext, e);
+            }
+        }
+
+        GtfsTimetable timetable = getTimetable();
+
+        int[] sources = timetable.findStops(origin.getLatitude(), origin.getLongitude(), MAX_WALK_METERS, MAX_STOPS);
+        int[] targets = timetable.findStops(destination.getLatitude(), destination.getLongitude(), MAX_WALK_METERS, MAX_STOPS);
+        if (sources.length == 0 || targets.length == 0) throw new IOException("No stops of the timetable nearby");
+
+        int[] sourceWalk = walkingTimes(timetable, sources, origin);
+        int[] targetWalk = walkingTimes(timetable, targets, destination);
+
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), zone);
+        LocalDate date = dateTime.toLocalDate();
+        boolean[] active = timetable.getActiveServices(date);
+        int seconds = dateTime.toLocalTime().toSecondOfDay();
+
+        List<GtfsTimetable.Journey> journeys = new ArrayList<>();
+        for (int i = 0; i < RESULTS; i++) {
+            GtfsTimetable.Journey journey = searchForArrival
+                    ? timetable.findLatestDeparture(active, sources, sourceWalk, targets, targetWalk, seconds)
+                    : timetable.findEarliestArrival(active, sources, sourceWalk, targets, targetWalk, seconds);
+            if (journey == null) break;
+
+            journeys.add(journey);
+            // the next search looks for the journey before or after the found one
+            seconds = searchForArrival ? journey.arrival - 1 : journey.departure + 1;
+        }
+        if (journeys.isEmpty()) throw new IOException("The timetable does not contain any trips");
+
+        Collections.sort(journeys, Comparator.comparingInt(journey -> journey.departure));
+
+        Trip[] trips = new Trip[journeys.size()];
+        int earliestArrival = Integer.MAX_VALUE, latestDeparture = Integer.MIN_VALUE;
+        for (int i = 0; i < trips.length; i++) {
+            GtfsTimetable.Journey journey = journeys.get(i);
+            trips[i] = toTrip(timetable, journey, date, origin, destination, sourceWalk[journey.source], targetWalk[journey.target]);
+            earliestArrival = Math.min(earliestArrival, journey.arrival);
+            latestDeparture = Math.max(latestDeparture, journey.departure);
+        }
+
+        TripData tripData = new TripData();
+        tripData.setDataSource(NAME);
+        tripData.setTrips(trips);
+        tripData.setEarlierContext("a:" + toEpochMillis(date, earliestArrival - 1, zone));
+        tripData.setLaterContext("d:" + toEpochMillis(date, latestDeparture + 1, zone));
+        return tripData;
+    }
+
+    private static int[] walkingTimes(GtfsTimetable timetable, int[] stops, Address address) {
+        int[] times = new int[stops.length];
+        for (int i = 0; i < stops.length; i++) {
+            times[i] = (int) Math.ceil(timetable.distance(stops[i], address.getLatitude(), address.getLongitude()) / WALK_SPEED);
+        }
+        return times;
+    }
+
+    private static Trip toTrip(GtfsTimetable timetable, GtfsTimetable.Journey journey, LocalDate date, Address origin, Address destination, int sourceWalk, int targetWalk) {
+        List<Leg> legs = new ArrayList<>();
+
+        int first = journey.enter[0];
+        int last = journey.exit[journey.exit.length - 1];
+        if (sourceWalk >= MIN_WALK_SECONDS) {
+            legs.add(walk(toStop(origin, date, journey.departure),
+                    toStop(timetable, timetable.getDepartureStop(first), date, journey.departure + sourceWalk)));
+        }
+
+        for (int i = 0; i < journey.enter.length; i++) {
+            int trip = timetable.getTrip(journey.enter[i]);
+
+            Leg leg = new Leg();
+            leg.setType("JNY");
+            leg.setName(timetable.getRouteName(trip));
+            leg.setCategory(timetable.getRouteCategory(trip));
+            leg.setOrigin(toStop(timetable, timetable.getDepartureStop(journey.enter[i]), date, timetable.getDepartureTime(journey.enter[i])));
+            leg.setDestination(toStop(timetable, timetable.getArrivalStop(journey.exit[i]), date, timetable.getArrivalTime(journey.exit[i])));
+            legs.add(leg);
+        }
+
+        if (targetWalk >= MIN_WALK_SECONDS) {
+            int arrival = timetable.getArrivalTime(last);
+            legs.add(walk(toStop(timetable, timetable.getArrivalStop(last), date, arrival),
+                    toStop(destination, date, arrival + targetWalk)));
+        }
+
+        LegList legList = new LegList();
+        legList.setLegs(legs.toArray(new Leg[0]));
+
+        Trip trip = new Trip();
+        trip.setLeglist(legList);
+        return trip;
+    }
+
+    private static Leg walk(Stop origin, Stop destination) {
+        Leg leg = new Leg();
+        leg.setType("WALK");
+        leg.setOrigin(origin);
+        leg.setDestination(destination);
+        return leg;
+    }
+
+    private static Stop toStop(GtfsTimetable timetable, int index, LocalDate date, int seconds) {
+        Stop stop = new Stop();
+        stop.setType("ST");
+        stop.setName(timetable.getStopName(index));
+        stop.setExtId(timetable.getStopId(index));
+        stop.setLat(timetable.getStopLat(index));
+        stop.setLon(timetable.getStopLon(index));
+        setTime(stop, date, seconds);
+        return stop;
+    }
+
+    private static Stop toStop(Address address, LocalDate date, int seconds) {
+        Stop stop = new Stop();
+        stop.setType("ADR");
+        stop.setName(address.getMaxAddressLineIndex() >= 0 ? address.getAddressLine(0) : address.getFeatureName());
+        stop.setLat(address.getLatitude());
+        stop.setLon(address.getLongitude());
+        setTime(stop, date, seconds);
+        return stop;
+    }
+
+    /**
+     * Sets the date and time of a stop, the seconds may exceed the service day
+     */
+    private static void setTime(Stop stop, LocalDate date, int seconds) {
+        LocalDateTime dateTime = date.atStartOfDay().plusSeconds(seconds);
+        stop.setDate(DATE_FORMAT.format(dateTime));
+        stop.setTime(TIME_FORMAT.format(dateTime));
+    }
+
+    private static long toEpochMillis(LocalDate date, int seconds, ZoneId zone) {
+        return date.atStartOfDay().plusSeconds(seconds).atZone(zone).toInstant().toEpochMilli();
+    }
+
+}
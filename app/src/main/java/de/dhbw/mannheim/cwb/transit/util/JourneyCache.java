@@ -0,0 +1,217 @@
+package de.dhbw.mannheim.cwb.transit.util;
+
+import android.location.Address;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.dhbw.mannheim.cwb.transit.pojo.TripData;
+
+/**
+ * In memory cache for the results of journey searches. Searches are identified by their origin
+ * and destination (quantised to about 110 meters), the search direction and the requested minute,
+ * which is the precision of the search itself. A coarser time would return trips of a search a few
+ * minutes earlier that depart before the requested time. Concurrent identical searches share a
+ * single query.
+ * <p>
+ * The results are stored in the binary format of the TripCodec and every caller receives its own
+ * copy, because TripData objects are modified when they are saved.
+ */
+public final class JourneyCache {
+
+    private static final int CAPACITY = 32;
+
+    private static final long TTL_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private static final long TIME_PRECISION_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final double COORDINATE_PRECISION = 1e3;
+
+    private static final JourneyCache INSTANCE = new JourneyCache();
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > CAPACITY;
+        }
+    };
+
+    // searches that are currently running, guarded by entries
+    private final Map<String, FutureTask<Entry>> pending = new HashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    private JourneyCache() {
+    }
+
+    /**
+     * @return the process wide cache
+     */
+    public static JourneyCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Creates the key of a search
+     *
+     * @param origin           the coordinates of the start address
+     * @param destination      the coordinates of the destination address
+     * @param searchForArrival whether to use the time as arrival time or as departure time
+     * @param time             the time in milliseconds of the search
+     * @param scrollContext    the scroll context of the search, null for the first page
+     * @return the key
+     */
+    public static String key(Address origin, Address destination, boolean searchForArrival, long time, String scrollContext) {
+        return Math.round(origin.getLatitude() * COORDINATE_PRECISION) + "," + Math.round(origin.getLongitude() * COORDINATE_PRECISION)
+                + ">" + Math.round(destination.getLatitude() * COORDINATE_PRECISION) + "," + Math.round(destination.getLongitude() * COORDINATE_PRECISION)
+                + (searchForArrival ? ":arrival:" : ":departure:") + (time / TIME_PRECISION_MILLIS)
+                + (scrollContext == null ? "" : ":" + scrollContext);
+    }
+
+    /**
+     * Returns the cached result of the search or performs it on the calling thread. If the same
+     * search is already performed by another thread its result is awaited instead.
+     *
+     * @param key    the key of the search
+     * @param search performs the search if there is no cached result
+     * @return the result of the search, the caller may modify it
+     * @throws IOException          if the search failed
+     * @throws InterruptedException if the calling thread has been interrupted
+     */
+    public TripData get(String key, Search search) throws IOException, InterruptedException {
+        while (true) {
+            FutureTask<Entry> task;
+            Entry cached;
+            boolean owner = false;
+
+            synchronized (entries) {
+                cached = entries.get(key);
+                if (cached != null && System.nanoTime() - cached.time >= TTL_NANOS) cached = null;
+
+                task = pending.get(key);
+                if (cached == null && task == null) {
+                    task = new FutureTask<>(() -> Entry.of(search.search()));
+                    pending.put(key, task);
+                    owner = true;
+                }
+            }
+
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached.copy();
+            }
+
+            if (owner) {
+                misses.incrementAndGet();
+                // the search is executed by the calling thread, so its cancellation stops the search
+                try {
+                    task.run();
+                } finally {
+                    synchronized (entries) {
+                        pending.remove(key);
+                        if (task.isDone() && !task.isCancelled()) try {
+                            entries.put(key, task.get());
+                        } catch (ExecutionException ignored) {
+                            // failed searches are not cached
+                        }
+                    }
+                }
+            } else coalesced.incrementAndGet();
+
+            try {
+                return task.get().copy();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                // the search of another thread has been cancelled, so it is started again
+                if (!owner && cause instanceof InterruptedException) continue;
+
+                if (cause instanceof IOException) throw (IOException) cause;
+                if (cause instanceof InterruptedException) throw (InterruptedException) cause;
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                throw new IOException(cause);
+            }
+        }
+    }
+
+    /**
+     * Removes all cached results
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    // ---- COUNTERS ---- //
+
+    /**
+     * @return the number of searches that have been answered from the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of searches that waited for an identical running search
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return the number of searches that needed to be performed
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    // ------------------ //
+
+    /**
+     * Performs a search
+     */
+    public interface Search {
+        TripData search() throws IOException, InterruptedException;
+    }
+
+    private static class Entry {
+        private final String dataSource;
+        private final String contextSource;
+        private final String earlierContext;
+        private final String laterContext;
+        private final byte[] trips;
+        private final long time = System.nanoTime();
+
+        private Entry(String dataSource, String contextSource, String earlierContext, String laterContext, byte[] trips) {
+            this.dataSource = dataSource;
+            this.contextSource = contextSource;
+            this.earlierContext = earlierContext;
+            this.laterContext = laterContext;
+            this.trips = trips;
+        }
+
+        static Entry of(TripData tripData) throws IOException {
+            return new Entry(tripData.getDataSource(), tripData.getContextSource(), tripData.getEarlierContext(),
+                    tripData.getLaterContext(), TripCodec.encode(tripData.getTrips()));
+        }
+
+        TripData copy() throws IOException {
+            TripData tripData = new TripData();
+            tripData.setDataSource(dataSource);
+            tripData.setContextSource(contextSource);
+            tripData.setEarlierContext(earlierContext);
+            tripData.setLaterContext(laterContext);
+            tripData.setTrips(TripCodec.decode(trips));
+            return tripData;
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+package de.dhbw.mannheim.cwb.transit.util;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.room.Room;
+import androidx.room.RoomDatabase;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+import de.dhbw.mannheim.cwb.transit.pojo.JourneyDatabase;
+
+/**
+ * Creates and holds the process wide journey database. The database uses write-ahead logging, so
+ * that reads (e.g. of the views) are not blocked by writes of background tasks. After the first
+ * access the database is returned without any locking.
+ */
+public final class JourneyDatabaseProvider {
+
+    private static final String NAME = "journeyDatabase";
+
+    /**
+     * the size in bytes the write-ahead log is truncated to after a checkpoint
+     */
+    private static final long JOURNAL_SIZE_LIMIT = 512 * 1024;
+
+    private static volatile JourneyDatabase database = null;
+
+    private JourneyDatabaseProvider() {
+    }
+
+    /**
+     * Returns the database. The database file is only opened by the first query, so this method
+     * may be called on the main thread.
+     *
+     * @param context current context
+     * @return the journey database
+     */
+    public static JourneyDatabase get(Context context) {
+        JourneyDatabase db = database;
+        if (db == null) {
+            synchronized (JourneyDatabaseProvider.class) {
+                db = database;
+                if (db == null) {
+                    database = db = Room.databaseBuilder(context.getApplicationContext(), JourneyDatabase.class, NAME)
+                            .addMigrations(JourneyDatabase.MIGRATIONS)
+                            .setJournalMode(RoomDatabase.JournalMode.WRITE_AHEAD_LOGGING)
+                            .addCallback(CALLBACK)
+                            .build();
+                }
+            }
+        }
+        return db;
+    }
+
+    /**
+     * Opens the database (including pending migrations) in the background, so that the first
+     * query does not have to wait for it.
+     *
+     * @param context current context
+     * @return a future that completes once the database is open
+     */
+    public static TransitTask<JourneyDatabase> open(Context context) {
+        return TransitExecutor.DATABASE.submit(() -> {
+            JourneyDatabase db = get(context);
+            db.getOpenHelper().getWritableDatabase();
+            return db;
+        });
+    }
+
+    private static final RoomDatabase.Callback CALLBACK = new RoomDatabase.Callback() {
+        @Override
+        public void onOpen(@NonNull SupportSQLiteDatabase db) {
+            // the pragma returns the new limit, so it has to be executed as query
+            try (Cursor cursor = db.query("PRAGMA journal_size_limit = " + JOURNAL_SIZE_LIMIT)) {
+                cursor.moveToFirst();
+            }
+        }
+    };
+
+}
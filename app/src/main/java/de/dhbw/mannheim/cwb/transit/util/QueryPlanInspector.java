@@ -0,0 +1,79 @@
+package de.dhbw.mannheim.cwb.transit.util;
+
+import android.database.Cursor;
+
+import androidx.sqlite.db.SupportSQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs EXPLAIN QUERY PLAN for the queries of the DAOs of the journey database and reports every
+ * full table scan, e.g. a filter on a column without an index. The instrumented
+ * QueryPlanInspectorTest asserts that no query of the schema generated by Room scans a table.
+ */
+public final class QueryPlanInspector {
+
+    private QueryPlanInspector() {
+    }
+
+    /**
+     * @return the queries of all DAOs of the journey database
+     */
+    public static List<String> getQueries() {
+        List<String> queries = new ArrayList<>(Arrays.asList(TripDataDAO.QUERIES));
+        queries.addAll(Arrays.asList(GeocodeDAO.QUERIES));
+        return queries;
+    }
+
+    /**
+     * Explains the provided queries. Parameters of the queries are left unbound.
+     *
+     * @param database the database the queries are supposed to be explained for
+     * @param queries  the queries that are supposed to be explained
+     * @return the steps of the plan for each query
+     */
+    public static Map<String, List<String>> explain(SupportSQLiteDatabase database, List<String> queries) {
+        Map<String, List<String>> plans = new LinkedHashMap<>();
+        for (String query : queries) {
+            List<String> steps = new ArrayList<>();
+            try (Cursor cursor = database.query("EXPLAIN QUERY PLAN " + query)) {
+                int detail = cursor.getColumnIndexOrThrow("detail");
+                while (cursor.moveToNext()) steps.add(cursor.getString(detail));
+            }
+            plans.put(query, steps);
+        }
+        return plans;
+    }
+
+    /**
+     * Explains all queries of the journey database and returns the steps that scan a whole table
+     *
+     * @param database the journey database
+     * @return the scanning steps for each query that contains at least one
+     */
+    public static Map<String, List<String>> findTableScans(SupportSQLiteDatabase database) {
+        Map<String, List<String>> scans = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> plan : explain(database, getQueries()).entrySet()) {
+            List<String> steps = new ArrayList<>();
+            for (String step : plan.getValue()) {
+                if (isTableScan(step)) steps.add(step);
+            }
+            if (!steps.isEmpty()) scans.put(plan.getKey(), steps);
+        }
+        return scans;
+    }
+
+    /**
+     * Checks a step of a query plan, e.g. "SCAN TABLE trip" (SQLite before 3.36) or "SCAN trip"
+     * as opposed to "SEARCH trip USING INDEX index_trip_eventId (eventId=?)"
+     */
+    static boolean isTableScan(String step) {
+        return step.startsWith("SCAN ") && !step.contains(" USING ") && !step.startsWith("SCAN SUBQUERY")
+                && !step.startsWith("SCAN CONSTANT ROW");
+    }
+
+}
@@ -0,0 +1,37 @@
+package de.dhbw.mannheim.cwb.transit.util;
+
+import android.content.Context;
+import android.location.Address;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import de.dhbw.mannheim.cwb.transit.pojo.TripData;
+
+/**
+ * Provides the routes of the RMV API
+ */
+public class RmvTransitProvider implements TransitProvider {
+
+    public static final String NAME = "RMV";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public long getDeadlineMillis() {
+        return TimeUnit.SECONDS.toMillis(30);
+    }
+
+    @Override
+    public TripData findTrips(Context context, Address origin, Address destination, boolean searchForArrival, long time, String scrollContext) throws IOException, InterruptedException {
+        try {
+            return new RoutePlanner().getTripData(context, origin, destination, searchForArrival, time, scrollContext);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("The RMV API did not find any trips", e);
+        }
+    }
+
+}
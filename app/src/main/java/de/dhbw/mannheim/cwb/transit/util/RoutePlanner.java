@@ -2,16 +2,19 @@ package de.dhbw.mannheim.cwb.transit.util;
 
 import android.content.Context;
 import android.location.Address;
+import android.net.Uri;
 import android.text.format.DateFormat;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.squareup.okhttp.OkHttpClient;
 import com.squareup.okhttp.Request;
 import com.squareup.okhttp.Response;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Date;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import de.dhbw.mannheim.cwb.transit.pojo.TripData;
 
@@ -21,6 +24,11 @@ import de.dhbw.mannheim.cwb.transit.pojo.TripData;
  */
 public class RoutePlanner {
 
+    /**
+     * the time in seconds the RMV API has to answer a request
+     */
+    private static final long REQUEST_DEADLINE_SECONDS = 30;
+
     /**
      * Queries the RMV APi for suitable routes for the transferred start address, destination address and arrival time
      *
@@ -30,15 +38,35 @@ public class RoutePlanner {
      * @param searchForArrival whether to use the time as arrival time or as departure time
      * @param time             the time in milliseconds at which one should arrive at the destination
      * @return the found TripData object containing multiple route options
+     * @throws IOException          if the request failed or the RMV API did not answer in time
+     * @throws InterruptedException if the search has been cancelled
      */
-    public TripData getTripData(Context context, Address origin, Address destination, boolean searchForArrival, long time) {
+    public TripData getTripData(Context context, Address origin, Address destination, boolean searchForArrival, long time) throws IOException, InterruptedException {
+        return getTripData(context, origin, destination, searchForArrival, time, null);
+    }
+
+    /**
+     * Queries the RMV APi for the trips before or after the trips of a previous query
+     *
+     * @param context          current context
+     * @param origin           start address String
+     * @param destination      destination address String
+     * @param searchForArrival whether to use the time as arrival time or as departure time
+     * @param time             the time in milliseconds at which one should arrive at the destination
+     * @param scrollContext    the earlier or later context of the previous TripData object, null for the first query
+     * @return the found TripData object containing only the new route options
+     * @throws IOException          if the request failed or the RMV API did not answer in time
+     * @throws InterruptedException if the search has been cancelled
+     */
+    public TripData getTripData(Context context, Address origin, Address destination, boolean searchForArrival, long time, String scrollContext) throws IOException, InterruptedException {
         String apiKey = PropertyReader.getProperty();
 
         if (origin == null || destination == null) {
             throw new IllegalArgumentException();
         } else {
             String url = buildUrl(origin.getLatitude(), origin.getLongitude(), destination.getLatitude(), destination.getLongitude(), searchForArrival, time, apiKey);
-            OkHttpClient client = new OkHttpClient();
+            if (scrollContext != null) url += "&context=" + Uri.encode(scrollContext);
+            OkHttpClient client = TransitHttpClient.get();
             TripData tripdata = doGetRequest(url, client);
             if (tripdata == null || tripdata.getTrips() == null) { //No trips found
                 throw new IllegalArgumentException();
@@ -61,7 +89,7 @@ public class RoutePlanner {
      * @return the formed URL String
      */
     private String buildUrl(double originCoordLat, double originCoordLong, double destCoordLat, double destCoordLong, boolean searchForArrival, long time, String key) {
-        String url = "https://www.rmv.de/hapi/trip?";
+        String url = TransitHttpClient.getRmvBaseUrl() + "trip?";
         url += "originCoordLat=" + originCoordLat + "&";
         url += "originCoordLong=" + originCoordLong + "&";
         url += "destCoordLat=" + destCoordLat + "&";
@@ -75,35 +103,53 @@ public class RoutePlanner {
     }
 
     /**
-     * Responsible for performing the GET-Request to the RMV API
+     * Responsible for performing the GET-Request to the RMV API. Package-private so that the
+     * request can be run against a local server without the Android classes of the URL.
      *
      * @param url    the URL that is supposed to be queried
      * @param client the okHttp Client that is supposed to perform the request
-     * @return
+     * @return the parsed response
+     * @throws IOException          if the request failed or the RMV API did not answer in time
+     * @throws InterruptedException if the calling thread has been interrupted
      */
-    private TripData doGetRequest(String url, OkHttpClient client) {
+    TripData doGetRequest(String url, OkHttpClient client) throws IOException, InterruptedException {
         Request request = new Request.Builder().url(url).build();
-        WebRequest webrequest = new WebRequest();
-        client.newCall(request).enqueue(webrequest);
+        WebRequest webrequest = WebRequest.enqueue(client, request);
+
+        // abort the okHttp call if the search is cancelled
+        TransitTask<?> task = TransitTask.current();
+        Runnable cancel = () -> webrequest.cancel(true);
+        if (task != null) task.addCancellationListener(cancel);
         try {
-            Response response = webrequest.get();
+            Response response = webrequest.get(REQUEST_DEADLINE_SECONDS, TimeUnit.SECONDS);
             return parseResponse(response);
-        } catch (ExecutionException | InterruptedException | IOException e) {
-            e.printStackTrace();
-            return null;
+        } catch (TimeoutException e) {
+            webrequest.cancel(true);
+            throw new IOException("The RMV API did not answer within " + REQUEST_DEADLINE_SECONDS + " seconds", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            // the interrupt is kept for the caller, a CancellationException is passed on unchanged
+            webrequest.cancel(true);
+            Thread.currentThread().interrupt();
+            throw e;
+        } finally {
+            if (task != null) task.removeCancellationListener(cancel);
         }
     }
 
     /**
-     * Gets the JSON data from the response body of the okHttp request and tries to parse it into a TripData object
+     * Streams the JSON data from the response body of the okHttp request and tries to parse it into a TripData object
      *
      * @param response okkHttp RepsponseObject containing the response body of the RMV API call
      * @return the parsed Trip Data Object
      * @throws IOException if it is not possible to parse the response
      */
     private TripData parseResponse(Response response) throws IOException {
-        String jsonString = response.body().string();
-        ObjectMapper mapper = new ObjectMapper();
-        return mapper.readValue(jsonString, TripData.class);
+        try (InputStream in = response.body().byteStream()) {
+            return TripDataParser.parse(in);
+        }
     }
 }
@@ -0,0 +1,233 @@
+package de.dhbw.mannheim.cwb.transit.util;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.provider.CalendarContract;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+import androidx.preference.PreferenceManager;
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import de.dhbw.mannheim.cwb.transit.pojo.Leg;
+import de.dhbw.mannheim.cwb.transit.pojo.Trip;
+import de.dhbw.mannheim.cwb.transit.pojo.TripData;
+import de.dhbw.mannheim.cwb.transit.pojo.TripEntry;
+
+/**
+ * Searches routes from the home address to the locations of the calendar events of the next 24
+ * hours in the background, so that the routes of an event can be shown without waiting for the
+ * RMV API. The addresses of all these events are resolved in the background as well, so that
+ * later searches do not have to wait for the geocoder. Events for which the user has saved a route are skipped, as well as event instances
+ * that already have searched routes or whose searched routes the user has deleted. The routes of
+ * instances that have started are removed by the next run.
+ * <p>
+ * The work is only executed while the device is online and the battery is not low. Each run
+ * performs a limited number of searches with a pause between them; remaining events are handled
+ * by the next run.
+ */
+public class RoutePrecomputeWorker extends Worker {
+
+    private static final String WORK_NAME = "route-precompute";
+
+    private static final long LOOKAHEAD_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+    /**
+     * the maximal number of RMV queries per run
+     */
+    private static final int MAX_SEARCHES_PER_RUN = 8;
+
+    /**
+     * the minimal time between two RMV queries
+     */
+    private static final long SEARCH_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(2);
+
+    private static final long SEARCH_TIMEOUT_SECONDS = 60;
+
+    /**
+     * the number of trips that are stored for each event
+     */
+    private static final int CANDIDATES = 2;
+
+    private static final String[] PROJECTION = {
+            CalendarContract.Instances.EVENT_ID, CalendarContract.Instances.BEGIN,
+            CalendarContract.Instances.ALL_DAY, CalendarContract.Instances.EVENT_LOCATION
+    };
+
+    public RoutePrecomputeWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    /**
+     * Schedules the periodic search, if it is not already scheduled
+     *
+     * @param context current context
+     */
+    public static void schedule(Context context) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .setRequiresBatteryNotLow(true)
+                .build();
+
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(RoutePrecomputeWorker.class,
+                3, TimeUnit.HOURS, 1, TimeUnit.HOURS).setConstraints(constraints).build();
+
+        WorkManager.getInstance(context).enqueueUniquePeriodicWork(WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+
+        String home = PreferenceManager.getDefaultSharedPreferences(context).getString("location_home", null);
+        if (home == null || home.trim().isEmpty()) return Result.success();
+
+        if (ContextCompat.checkSelfPermission(context, Manifest.permission.READ_CALENDAR) != PackageManager.PERMISSION_GRANTED)
+            return Result.success();
+
+        TripDataDAO dao = JourneyDatabaseProvider.get(context).tripDataDAO();
+        long now = System.currentTimeMillis();
+        dao.deleteExpiredPrefetched(now);
+
+        // events with the same location and start share a single search, the instances of a
+        // recurring event have different starts and are stored separately
+        Map<String, Search> searches = new LinkedHashMap<>();
+        Set<String> locations = new LinkedHashSet<>();
+        locations.add(home);
+        try (Cursor cursor = CalendarContract.Instances.query(context.getContentResolver(), PROJECTION, now, now + LOOKAHEAD_MILLIS)) {
+            while (cursor != null && cursor.moveToNext()) {
+                String location = cursor.getString(3);
+                if (location == null || location.trim().isEmpty()) continue;
+                locations.add(location);
+
+                long eventId = cursor.getLong(0);
+                if (dao.countSavedByEventId(eventId) > 0) continue;
+
+                long arrival = cursor.getInt(2) != 0 ? atNoon(cursor.getLong(1)) : cursor.getLong(1);
+                if (arrival < now || dao.isDismissed(eventId, arrival)) continue;
+                // the searches of a run are limited, so searched instances must not be repeated
+                if (dao.countPrefetched(eventId, arrival) > 0) continue;
+
+                String key = GeocodeCache.normalize(location) + "@" + arrival;
+                Search search = searches.get(key);
+                if (search == null) searches.put(key, search = new Search(location, arrival));
+                if (!search.eventIds.contains(eventId)) search.eventIds.add(eventId);
+            }
+        }
+
+        // the searches below look up their addresses through the same cache
+        TransitTask<?> warmUp = GeocodeCache.getInstance(context).prefetch(locations);
+
+        // the found trips of all searches are written in a single transaction
+        List<TripData> found = new ArrayList<>();
+        int performed = 0;
+        for (Search search : searches.values()) {
+            if (isStopped() || performed >= MAX_SEARCHES_PER_RUN) break;
+            if (performed > 0) try {
+                Thread.sleep(SEARCH_INTERVAL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            performed++;
+
+            TripData result;
+            TransitTask<TripData> task = AsyncRoutePlanner.queryJourneyDetails(context, home, search.location, true, search.arrival);
+            try {
+                result = task.get(SEARCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (ExecutionException | TimeoutException e) {
+                task.cancel(true);
+                System.err.println(e.getClass().getName() + ": " + e.getMessage());
+                continue;
+            } catch (InterruptedException e) {
+                task.cancel(true);
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            Trip[] candidates = selectCandidates(result.getTrips());
+            for (long eventId : search.eventIds) {
+                TripData tripData = new TripData();
+                tripData.setEventId(eventId);
+                tripData.setInstanceTime(search.arrival);
+                tripData.setDataSource(result.getDataSource());
+                tripData.setTrips(candidates);
+                found.add(tripData);
+            }
+        }
+        if (!found.isEmpty()) dao.replacePrefetched(found);
+
+        // the process may be stopped once the work has finished, so the lookups are awaited
+        if (isStopped() || Thread.interrupted()) warmUp.cancel(true);
+        else try {
+            warmUp.get(SEARCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            warmUp.cancel(true);
+            System.err.println(e.getClass().getName() + ": " + e.getMessage());
+        } catch (InterruptedException e) {
+            warmUp.cancel(true);
+        }
+
+        return Result.success();
+    }
+
+    /**
+     * Selects the trips that arrive last
+     */
+    private static Trip[] selectCandidates(Trip[] trips) {
+        Trip[] sorted = trips.clone();
+        Arrays.sort(sorted, Comparator.comparingLong(RoutePrecomputeWorker::getArrival).reversed());
+        return Arrays.copyOf(sorted, Math.min(CANDIDATES, sorted.length));
+    }
+
+    private static long getArrival(Trip trip) {
+        Leg[] legs = trip.getLeglist() == null ? null : trip.getLeglist().getLegs();
+        return legs == null || legs.length == 0 ? 0 : TripEntry.toEpochMillis(legs[legs.length - 1].getDestination());
+    }
+
+    /**
+     * All-day events start at midnight UTC, routes are searched for noon of that day like in the
+     * event view
+     */
+    private static long atNoon(long begin) {
+        return Instant.ofEpochMilli(begin).atOffset(ZoneOffset.UTC).toLocalDate().atTime(LocalTime.NOON)
+                .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static class Search {
+        private final String location;
+        private final long arrival;
+        private final List<Long> eventIds = new ArrayList<>();
+
+        Search(String location, long arrival) {
+            this.location = location;
+            this.arrival = arrival;
+        }
+    }
+
+}
@@ -0,0 +1,170 @@
+package de.dhbw.mannheim.cwb.transit.util;
+
+import android.os.Process;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded thread pools that execute the background work of the route planning system. The work is
+ * split into separate lanes so that slow network requests can't delay the database access and
+ * vice versa. Each lane has a bounded queue; if it is full new tasks fail with a
+ * RejectedExecutionException instead of piling up.
+ */
+public final class TransitExecutor implements Executor {
+
+    /**
+     * Lane for requests to the RMV API and the geocoder
+     */
+    public static final TransitExecutor NETWORK = new TransitExecutor("transit-network", 4, 16);
+
+    /**
+     * Lane for single geocoder lookups that are issued by a task of another lane
+     */
+    public static final TransitExecutor GEOCODING = new TransitExecutor("transit-geocoding", 4, 64);
+
+    /**
+     * Lane for the queries of the single transit providers, that are issued by a search of the
+     * network lane
+     */
+    public static final TransitExecutor PROVIDERS = new TransitExecutor("transit-provider", 4, 16);
+
+    /**
+     * Lane for the access to the room database
+     */
+    public static final TransitExecutor DATABASE = new TransitExecutor("transit-database", 2, 64);
+
+    private final String name;
+    private final ThreadPoolExecutor executor;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalQueueNanos = new AtomicLong();
+    private final AtomicLong totalRunNanos = new AtomicLong();
+
+    private TransitExecutor(String name, int threads, int capacity) {
+        this.name = name;
+
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, name + "-" + count.incrementAndGet());
+            // daemon threads so that they do not prevent shutdown
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(capacity), factory, (runnable, pool) -> {
+            rejected.incrementAndGet();
+            ((TransitTask<?>) runnable).fail(new RejectedExecutionException(
+                    "Too many pending tasks in " + name));
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues the callable for execution in this lane.
+     *
+     * @param callable the work that is supposed to be executed
+     * @return a future representing the pending result, it fails with a RejectedExecutionException
+     * if the lane is saturated
+     */
+    public <V> TransitTask<V> submit(Callable<V> callable) {
+        TransitTask<V> task = new TransitTask<>(this, callable);
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Queues the runnable for execution in this lane.
+     *
+     * @param runnable the work that is supposed to be executed
+     * @return a future that completes with null once the runnable has finished
+     */
+    public TransitTask<?> submit(Runnable runnable) {
+        return submit(() -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Queues the runnable for execution in this lane. Other than submit this method throws if the
+     * lane is saturated, as required by the Executor contract (e.g. for coroutine dispatchers).
+     *
+     * @param runnable the work that is supposed to be executed
+     * @throws RejectedExecutionException if the lane is saturated
+     */
+    @Override
+    public void execute(Runnable runnable) {
+        TransitTask<?> task = submit(runnable);
+        if (task.isRejected()) throw new RejectedExecutionException("Too many pending tasks in " + name);
+    }
+
+    void recordCompletion(long queueNanos, long runNanos) {
+        completed.incrementAndGet();
+        totalQueueNanos.addAndGet(queueNanos);
+        totalRunNanos.addAndGet(runNanos);
+    }
+
+    // ---- COUNTERS ---- //
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the number of tasks that are waiting for a free thread
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return the number of tasks that are currently executed
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return the number of tasks that have been completed, cancelled or failed
+     */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * @return the number of tasks that could not be queued because the lane was saturated
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return the average time in milliseconds a task waited for a free thread
+     */
+    public double getAverageQueueMillis() {
+        long count = completed.get();
+        return count == 0 ? 0 : totalQueueNanos.get() / 1e6 / count;
+    }
+
+    /**
+     * @return the average time in milliseconds a task has been running
+     */
+    public double getAverageRunMillis() {
+        long count = completed.get();
+        return count == 0 ? 0 : totalRunNanos.get() / 1e6 / count;
+    }
+
+}
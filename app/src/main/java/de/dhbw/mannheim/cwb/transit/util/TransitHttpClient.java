@@ -0,0 +1,136 @@
+package de.dhbw.mannheim.cwb.transit.util;
+
+import com.squareup.okhttp.Connection;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Protocol;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the process wide OkHttpClient that is used for all requests to the RMV API. Sharing the
+ * client keeps the connection pool and with it the TCP connections and TLS sessions alive between
+ * two searches. Responses are requested gzip compressed, which OkHttp does transparently as long
+ * as no Accept-Encoding header is set.
+ */
+public final class TransitHttpClient {
+
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+    private static final long KEEP_ALIVE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final long CONNECT_TIMEOUT_SECONDS = 10;
+    private static final long READ_TIMEOUT_SECONDS = 20;
+    private static final long WRITE_TIMEOUT_SECONDS = 10;
+
+    private static final String DEFAULT_RMV_BASE_URL = "https://www.rmv.de/hapi/";
+
+    private static volatile String rmvBaseUrl = DEFAULT_RMV_BASE_URL;
+
+    private static final AtomicLong requests = new AtomicLong();
+    private static final AtomicLong connections = new AtomicLong();
+    private static final AtomicLong totalLatencyNanos = new AtomicLong();
+
+    private static final Map<Connection, Boolean> knownConnections = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private static final OkHttpClient CLIENT = createClient();
+
+    private TransitHttpClient() {
+    }
+
+    /**
+     * @return the shared OkHttpClient
+     */
+    public static OkHttpClient get() {
+        return CLIENT;
+    }
+
+    /**
+     * Enables or disables the negotiation of HTTP/2. If disabled only HTTP/1.1 will be used.
+     *
+     * @param enabled whether HTTP/2 should be offered to the server
+     */
+    public static void setHttp2Enabled(boolean enabled) {
+        CLIENT.setProtocols(enabled ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1) : Collections.singletonList(Protocol.HTTP_1_1));
+    }
+
+    /**
+     * @return the URL all RMV API endpoints are relative to, ending with a slash
+     */
+    public static String getRmvBaseUrl() {
+        return rmvBaseUrl;
+    }
+
+    /**
+     * Replaces the URL of the RMV API, e.g. with a local stand-in server. Passing null restores
+     * the default URL.
+     *
+     * @param baseUrl the URL all RMV API endpoints are relative to, ending with a slash
+     */
+    public static void setRmvBaseUrl(String baseUrl) {
+        rmvBaseUrl = baseUrl == null ? DEFAULT_RMV_BASE_URL : baseUrl;
+    }
+
+    private static OkHttpClient createClient() {
+        OkHttpClient client = new OkHttpClient();
+
+        client.setConnectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MILLIS));
+        client.setConnectTimeout(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        client.setReadTimeout(READ_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        client.setWriteTimeout(WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        client.setProtocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
+
+        // measures the latency of a request including the time it took to get a connection
+        client.interceptors().add(chain -> {
+            long start = System.nanoTime();
+            try {
+                return chain.proceed(chain.request());
+            } finally {
+                requests.incrementAndGet();
+                totalLatencyNanos.addAndGet(System.nanoTime() - start);
+            }
+        });
+
+        // counts the connections that had to be established (i.e. were not reused from the pool)
+        client.networkInterceptors().add(chain -> {
+            Connection connection = chain.connection();
+            if (connection != null && knownConnections.put(connection, Boolean.TRUE) == null) {
+                connections.incrementAndGet();
+            }
+            return chain.proceed(chain.request());
+        });
+
+        return client;
+    }
+
+    // ---- COUNTERS ---- //
+
+    /**
+     * @return the number of requests that have been performed with the shared client
+     */
+    public static long getRequestCount() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of connections that have been established, every further request reused
+     * an existing connection and therefore saved the TCP and TLS handshake
+     */
+    public static long getConnectionCount() {
+        return connections.get();
+    }
+
+    /**
+     * @return the average time in milliseconds from sending a request until the response headers
+     * have been received
+     */
+    public static double getAverageLatencyMillis() {
+        long count = requests.get();
+        return count == 0 ? 0 : totalLatencyNanos.get() / 1e6 / count;
+    }
+
+}
@@ -0,0 +1,43 @@
+package de.dhbw.mannheim.cwb.transit.util;
+
+import android.content.Context;
+import android.location.Address;
+
+import java.io.IOException;
+
+import de.dhbw.mannheim.cwb.transit.pojo.TripData;
+
+/**
+ * A source of public transport routes, e.g. the RMV API. Providers are registered at the
+ * {@link TransitRouter}, which queries all of them in parallel.
+ */
+public interface TransitProvider {
+
+    /**
+     * @return the name of the provider, it is stored as data source of the found trips
+     */
+    String getName();
+
+    /**
+     * @return the time in milliseconds the provider has to answer a query
+     */
+    long getDeadlineMillis();
+
+    /**
+     * Searches routes between the coordinates of the provided addresses. The method is executed
+     * by a {@link TransitTask}; it should stop if the thread is interrupted.
+     *
+     * @param context          current context
+     * @param origin           start address with coordinates
+     * @param destination      destination address with coordinates
+     * @param searchForArrival whether to use the time as arrival time or as departure time
+     * @param time             the time in milliseconds of the search
+     * @param scrollContext    the earlier or later context of a previous result of this provider,
+     *                         null for the first query
+     * @return the found TripData object, it has to contain at least one trip
+     * @throws IOException          if the provider did not find any trips or the query failed
+     * @throws InterruptedException if the query has been cancelled
+     */
+    TripData findTrips(Context context, Address origin, Address destination, boolean searchForArrival, long time, String scrollContext) throws IOException, InterruptedException;
+
+}
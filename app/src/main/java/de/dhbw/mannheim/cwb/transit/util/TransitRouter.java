@@ -0,0 +1,228 @@
+package de.dhbw.mannheim.cwb.transit.util;
+
+import android.content.Context;
+import android.location.Address;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import de.dhbw.mannheim.cwb.transit.pojo.Leg;
+import de.dhbw.mannheim.cwb.transit.pojo.Trip;
+import de.dhbw.mannheim.cwb.transit.pojo.TripData;
+import de.dhbw.mannheim.cwb.transit.pojo.TripEntry;
+
+/**
+ * Queries all registered {@link TransitProvider}s in parallel and merges their results. The
+ * router returns as soon as the first provider has found trips; providers that answer shortly
+ * afterwards are merged as well, slower providers are cancelled. Trips of a provider that have
+ * already been found by an earlier provider are not returned again.
+ */
+public final class TransitRouter {
+
+    /**
+     * the time in milliseconds other providers may take after the first provider found trips
+     */
+    private static final long GRACE_MILLIS = 300;
+
+    private static final List<TransitProvider> PROVIDERS = new CopyOnWriteArrayList<>();
+
+    static {
+        PROVIDERS.add(new RmvTransitProvider());
+    }
+
+    private TransitRouter() {
+    }
+
+    /**
+     * Registers an additional provider
+     *
+     * @param provider the provider that is supposed to be queried for all further searches
+     */
+    public static void register(TransitProvider provider) {
+        PROVIDERS.add(provider);
+    }
+
+    /**
+     * Removes a provider
+     *
+     * @param provider the provider that is not supposed to be queried anymore
+     */
+    public static void unregister(TransitProvider provider) {
+        PROVIDERS.remove(provider);
+    }
+
+    /**
+     * Searches routes with all registered providers on the calling thread.
+     *
+     * @param context          current context
+     * @param origin           start address with coordinates
+     * @param destination      destination address with coordinates
+     * @param searchForArrival whether to use the time as arrival time or as departure time
+     * @param time             the time in milliseconds of the search
+     * @param scrollContext    the scroll context of a previous result, null for the first query
+     * @param contextSource    the name of the provider that created the scroll context, only this
+     *                         provider is queried if a scroll context is provided
+     * @return the merged result, its data source names all providers that contributed trips and its
+     * context source the provider of its scroll contexts
+     * @throws IOException          if no provider found trips
+     * @throws InterruptedException if the search has been cancelled
+     */
+    public static TripData findTrips(Context context, Address origin, Address destination, boolean searchForArrival, long time, String scrollContext, String contextSource) throws IOException, InterruptedException {
+        List<TransitProvider> providers = new ArrayList<>();
+        for (TransitProvider provider : PROVIDERS) {
+            // a scroll context is only understood by the provider that created it
+            if (scrollContext == null || provider.getName().equals(contextSource)) providers.add(provider);
+        }
+        if (providers.isEmpty()) throw new IOException("No transit provider available for " + contextSource);
+
+        BlockingQueue<Query> completed = new LinkedBlockingQueue<>();
+        List<Query> running = new ArrayList<>();
+        long start = System.nanoTime();
+        for (TransitProvider provider : providers) {
+            Query query = new Query(provider, start, TransitExecutor.PROVIDERS.submit(
+                    () -> provider.findTrips(context, origin, destination, searchForArrival, time, scrollContext)));
+            query.task.addCompletionListener(() -> completed.add(query));
+            running.add(query);
+        }
+
+        List<Query> results = new ArrayList<>();
+        Throwable failure = null;
+        try {
+            long graceDeadline = Long.MAX_VALUE;
+            while (!running.isEmpty()) {
+                long deadline = graceDeadline;
+                for (Query query : running) deadline = Math.min(deadline, query.deadline);
+
+                long remaining = deadline - System.nanoTime();
+                Query query = remaining > 0 ? completed.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                if (query == null) {
+                    if (System.nanoTime() >= graceDeadline) break;
+
+                    // give up on providers that exceeded their deadline
+                    long now = System.nanoTime();
+                    for (int i = running.size() - 1; i >= 0; i--) {
+                        if (running.get(i).deadline <= now) running.remove(i).task.cancel(true);
+                    }
+                    continue;
+                }
+                if (!running.remove(query)) continue;
+
+                try {
+                    TripData tripData = query.task.get();
+                    if (tripData != null && tripData.getTrips() != null && tripData.getTrips().length > 0) {
+                        results.add(query.withResult(tripData));
+                        // the first acceptable result has arrived, others only get a short grace period
+                        if (graceDeadline == Long.MAX_VALUE)
+                            graceDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(GRACE_MILLIS);
+                    }
+                } catch (ExecutionException e) {
+                    if (failure == null) failure = e.getCause();
+                } catch (CancellationException ignored) {
+                    // the provider exceeded its deadline
+                }
+            }
+        } finally {
+            for (Query query : running) query.task.cancel(true);
+        }
+
+        if (results.isEmpty()) {
+            if (failure instanceof IOException) throw (IOException) failure;
+            throw new IOException("No transit provider found trips", failure);
+        }
+        return merge(results);
+    }
+
+    /**
+     * Merges the results of multiple providers. All trips of the first result are kept, trips of
+     * later results are dropped if an earlier result contains a trip with the same key. The trips
+     * of a single provider are never compared with each other, because they may only differ in
+     * their walks or transfers. The scroll contexts of the first result are kept.
+     */
+    private static TripData merge(List<Query> results) {
+        TripData first = results.get(0).result;
+        String contextSource = results.get(0).provider.getName();
+        if (results.size() == 1) {
+            if (first.getDataSource() == null) first.setDataSource(contextSource);
+            first.setContextSource(contextSource);
+            return first;
+        }
+
+        List<Trip> trips = new ArrayList<>();
+        Set<String> keys = new HashSet<>();
+        StringBuilder dataSource = new StringBuilder();
+        for (Query query : results) {
+            int count = trips.size();
+            List<String> added = new ArrayList<>();
+            for (Trip trip : query.result.getTrips()) {
+                String key = key(trip);
+                if (keys.contains(key)) continue;
+
+                trips.add(trip);
+                added.add(key);
+            }
+            // the keys are only compared with the results of the following providers
+            keys.addAll(added);
+
+            // only name the providers that contributed trips
+            if (trips.size() > count || dataSource.length() == 0) {
+                if (dataSource.length() > 0) dataSource.append(", ");
+                dataSource.append(query.provider.getName());
+            }
+        }
+
+        TripData tripData = new TripData();
+        tripData.setDataSource(dataSource.toString());
+        tripData.setContextSource(contextSource);
+        tripData.setEarlierContext(first.getEarlierContext());
+        tripData.setLaterContext(first.getLaterContext());
+        tripData.setTrips(trips.toArray(new Trip[0]));
+        return tripData;
+    }
+
+    /**
+     * Identifies a trip by its departure, arrival and the lines it uses
+     */
+    private static String key(Trip trip) {
+        Leg[] legs = trip.getLeglist() == null ? null : trip.getLeglist().getLegs();
+        if (legs == null || legs.length == 0) return String.valueOf(System.identityHashCode(trip));
+
+        StringBuilder key = new StringBuilder();
+        key.append(TripEntry.toEpochMillis(legs[0].getOrigin())).append('>')
+                .append(TripEntry.toEpochMillis(legs[legs.length - 1].getDestination()));
+        for (Leg leg : legs) {
+            if ("JNY".equals(leg.getType())) key.append('|').append(leg.getName() == null ? "" : leg.getName().trim());
+        }
+        return key.toString();
+    }
+
+    /**
+     * A running query of a single provider
+     */
+    private static class Query {
+        private final TransitProvider provider;
+        private final TransitTask<TripData> task;
+        private final long deadline;
+        private TripData result;
+
+        Query(TransitProvider provider, long start, TransitTask<TripData> task) {
+            this.provider = provider;
+            this.task = task;
+            this.deadline = start + TimeUnit.MILLISECONDS.toNanos(provider.getDeadlineMillis());
+        }
+
+        Query withResult(TripData result) {
+            this.result = result;
+            return this;
+        }
+    }
+
+}
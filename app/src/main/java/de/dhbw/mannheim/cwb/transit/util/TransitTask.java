@@ -0,0 +1,138 @@
+package de.dhbw.mannheim.cwb.transit.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * A FutureTask that is executed by a {@link TransitExecutor}. It records the time it spent in the
+ * queue and while running and allows the code executed by the task to register callbacks that are
+ * invoked if the task is cancelled (e.g. to abort a blocking network call). Callers can be
+ * notified about the completion instead of blocking a thread on get().
+ */
+public class TransitTask<V> extends FutureTask<V> {
+
+    private static final ThreadLocal<TransitTask<?>> CURRENT = new ThreadLocal<>();
+
+    private final TransitExecutor executor;
+    private final List<Runnable> cancellationListeners = new ArrayList<>();
+    private final List<Runnable> completionListeners = new ArrayList<>();
+
+    private final long enqueueTime = System.nanoTime();
+    private volatile long startTime = 0;
+    private volatile boolean rejected = false;
+
+    TransitTask(TransitExecutor executor, Callable<V> callable) {
+        super(callable);
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the task that is currently executed by the calling thread.
+     *
+     * @return the running task or null if the calling thread does not execute a TransitTask
+     */
+    public static TransitTask<?> current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Registers a callback that is invoked once this task gets cancelled. If the task is already
+     * cancelled the callback is invoked immediately.
+     *
+     * @param listener the callback that is supposed to be invoked
+     */
+    public void addCancellationListener(Runnable listener) {
+        synchronized (cancellationListeners) {
+            if (!isCancelled()) {
+                cancellationListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    /**
+     * Registers a callback that is invoked once this task has completed, failed or was cancelled.
+     * The callback is invoked on the thread that completed the task. If the task is already done
+     * the callback is invoked immediately.
+     *
+     * @param listener the callback that is supposed to be invoked
+     */
+    public void addCompletionListener(Runnable listener) {
+        synchronized (completionListeners) {
+            if (!isDone()) {
+                completionListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    /**
+     * Removes a callback that was registered through addCancellationListener
+     *
+     * @param listener the callback that is supposed to be removed
+     */
+    public void removeCancellationListener(Runnable listener) {
+        synchronized (cancellationListeners) {
+            cancellationListeners.remove(listener);
+        }
+    }
+
+    @Override
+    public void run() {
+        startTime = System.nanoTime();
+
+        TransitTask<?> previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            super.run();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    @Override
+    protected void done() {
+        if (isCancelled()) {
+            List<Runnable> listeners;
+            synchronized (cancellationListeners) {
+                listeners = new ArrayList<>(cancellationListeners);
+                cancellationListeners.clear();
+            }
+            for (Runnable listener : listeners) listener.run();
+        }
+
+        long now = System.nanoTime();
+        // a task that was cancelled while queued has never been started
+        long start = startTime == 0 ? now : startTime;
+        executor.recordCompletion(start - enqueueTime, now - start);
+
+        List<Runnable> listeners;
+        synchronized (completionListeners) {
+            listeners = new ArrayList<>(completionListeners);
+            completionListeners.clear();
+        }
+        for (Runnable listener : listeners) listener.run();
+    }
+
+    /**
+     * Completes the task exceptionally without running it, e.g. if it could not be queued.
+     *
+     * @param t the cause of the failure
+     */
+    void fail(Throwable t) {
+        rejected = true;
+        setException(t);
+    }
+
+    /**
+     * @return true if the task has been completed by fail without being run
+     */
+    public boolean isRejected() {
+        return rejected;
+    }
+
+}
@@ -0,0 +1,55 @@
+package de.dhbw.mannheim.cwb.transit.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import de.dhbw.mannheim.cwb.transit.pojo.Trip;
+import de.dhbw.mannheim.cwb.util.JsonMapping;
+
+/**
+ * Binary storage format for the trips of a TripData object. The first byte denotes the format
+ * of the remaining bytes so that the format can be changed without breaking existing rows.
+ * Version 1 is Smile (binary JSON), which writes repeated field names and stop names only once.
+ */
+public final class TripCodec {
+
+    static final byte FORMAT_SMILE = 1;
+
+    private TripCodec() {
+    }
+
+    /**
+     * Encodes the provided trips
+     *
+     * @param trips the trips that are supposed to be encoded
+     * @return the encoded trips
+     * @throws IOException if the trips can't be encoded
+     */
+    public static byte[] encode(Trip[] trips) throws IOException {
+        byte[] smile = JsonMapping.TRIPS_SMILE_WRITER.writeValueAsBytes(trips);
+
+        byte[] data = new byte[smile.length + 1];
+        data[0] = FORMAT_SMILE;
+        System.arraycopy(smile, 0, data, 1, smile.length);
+        return data;
+    }
+
+    /**
+     * Decodes trips that have been encoded by encode
+     *
+     * @param data the encoded trips
+     * @return the decoded trips
+     * @throws IOException if the data is not in a known format
+     */
+    public static Trip[] decode(byte[] data) throws IOException {
+        if (data.length == 0) throw new IOException("Missing format version");
+
+        switch (data[0]) {
+            case FORMAT_SMILE:
+                return JsonMapping.TRIPS_SMILE_READER.readValue(data, 1, data.length - 1);
+            default:
+                throw new IOException("Unknown format version " + data[0] + " in " + Arrays.toString(Arrays.copyOf(data, Math.min(data.length, 8))));
+        }
+    }
+
+}
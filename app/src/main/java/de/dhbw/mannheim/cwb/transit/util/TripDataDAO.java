@@ -4,36 +4,280 @@ import androidx.lifecycle.LiveData;
 import androidx.room.Dao;
 import androidx.room.Delete;
 import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
 import androidx.room.Query;
+import androidx.room.Transaction;
 import androidx.room.Update;
 
-import java.util.Collection;
 import java.util.List;
 
+import de.dhbw.mannheim.cwb.transit.pojo.Leg;
+import de.dhbw.mannheim.cwb.transit.pojo.LegEntry;
+import de.dhbw.mannheim.cwb.transit.pojo.PrefetchDismissal;
+import de.dhbw.mannheim.cwb.transit.pojo.StopEntry;
+import de.dhbw.mannheim.cwb.transit.pojo.Trip;
 import de.dhbw.mannheim.cwb.transit.pojo.TripData;
+import de.dhbw.mannheim.cwb.transit.pojo.TripEntry;
 
 /**
  * @author Lukas Rothenbach
  * Interface between the database and the program code with which it is possible to make queries to the database.
+ * Every TripData object is stored as a whole and additionally split into the trip, leg and stop tables so that
+ * filtering and sorting can be done by SQLite.
  */
 @Dao
-public interface TripDataDAO {
-    @Query("SELECT * FROM tripdata t where t.eventId = :eventId")
-    LiveData<List<TripData>> getTripDataByEventId(long eventId);
+public abstract class TripDataDAO {
+    static final String SELECT_BY_EVENT_ID = "SELECT * FROM tripdata t where t.eventId = :eventId";
+    static final String SELECT_BY_ID = "SELECT * FROM tripdata t where t.id = :id";
+    static final String DELETE_BY_EVENT_ID = "DELETE FROM tripdata where tripdata.eventId = :eventId";
+    static final String SELECT_NEXT_DEPARTURE = "SELECT * FROM trip t where t.departure >= :from AND t.departure < :to ORDER BY t.departure LIMIT 1";
+    static final String SELECT_LEGS_BY_TRIP_ID = "SELECT * FROM leg l where l.tripId = :tripId ORDER BY l.position";
+    static final String SELECT_STOPS_BY_LEG_ID = "SELECT * FROM stop s where s.legId = :legId ORDER BY s.role";
+    static final String COUNT_SAVED_BY_EVENT_ID = "SELECT COUNT(*) FROM tripdata t where t.eventId = :eventId AND t.prefetched = 0";
+    static final String DELETE_PREFETCHED_BY_EVENT_ID = "DELETE FROM tripdata where tripdata.eventId = :eventId AND tripdata.prefetched = 1";
+    static final String DELETE_PREFETCHED_BY_INSTANCE = "DELETE FROM tripdata where tripdata.eventId = :eventId "
+            + "AND tripdata.prefetched = 1 AND tripdata.instanceTime = :instanceTime";
+    static final String DELETE_PREFETCHED_BEFORE = "DELETE FROM tripdata where tripdata.prefetched = 1 AND tripdata.instanceTime < :time";
+    static final String COUNT_PREFETCHED_BY_INSTANCE = "SELECT COUNT(*) FROM tripdata t where t.eventId = :eventId "
+            + "AND t.prefetched = 1 AND t.instanceTime = :instanceTime";
+    static final String COUNT_DISMISSALS = "SELECT COUNT(*) FROM prefetch_dismissal d where d.eventId = :eventId AND d.instanceTime = :instanceTime";
+    static final String DELETE_DISMISSALS_BEFORE = "DELETE FROM prefetch_dismissal where prefetch_dismissal.instanceTime < :time";
+    static final String DELETE_TRIPS_BY_TRIP_DATA_ID = "DELETE FROM trip where trip.tripDataId = :tripDataId";
 
-    @Query("SELECT * FROM tripdata t where t.id = :id")
-    LiveData<TripData> getTripDataById(long id);
+    /**
+     * All queries of this DAO, used by the QueryPlanInspector
+     */
+    static final String[] QUERIES = {SELECT_BY_EVENT_ID, SELECT_BY_ID, DELETE_BY_EVENT_ID, SELECT_NEXT_DEPARTURE,
+            SELECT_LEGS_BY_TRIP_ID, SELECT_STOPS_BY_LEG_ID, COUNT_SAVED_BY_EVENT_ID, DELETE_PREFETCHED_BY_EVENT_ID,
+            DELETE_PREFETCHED_BY_INSTANCE, DELETE_PREFETCHED_BEFORE, COUNT_PREFETCHED_BY_INSTANCE, COUNT_DISMISSALS,
+            DELETE_DISMISSALS_BEFORE, DELETE_TRIPS_BY_TRIP_DATA_ID};
+
+    @Query(SELECT_BY_EVENT_ID)
+    public abstract LiveData<List<TripData>> getTripDataByEventId(long eventId);
+
+    @Query(SELECT_BY_ID)
+    public abstract LiveData<TripData> getTripDataById(long id);
+
+    // blocking variants for background work without a lifecycle owner
+
+    @Query(SELECT_BY_EVENT_ID)
+    public abstract List<TripData> loadTripDataByEventId(long eventId);
+
+    @Query(SELECT_BY_ID)
+    public abstract TripData loadTripDataById(long id);
+
+    @Transaction
+    public long insert(TripData tripData) {
+        long id = insertTripData(tripData);
+        insertTrips(id, tripData);
+        return id;
+    }
+
+    @Transaction
+    public void update(TripData tripData) {
+        updateTripData(tripData);
+
+        // legs and stops are removed by the foreign keys
+        deleteTripsByTripDataId(tripData.getId());
+        insertTrips(tripData.getId(), tripData);
+    }
+
+    /**
+     * Inserts the TripData object or updates it if a row with the same id already exists
+     *
+     * @param tripData the TripData object that is supposed to be saved
+     * @return the id of the row
+     */
+    @Transaction
+    public long upsert(TripData tripData) {
+        long id = insertOrIgnoreTripData(tripData);
+        if (id == -1) {
+            // the row already exists
+            id = tripData.getId();
+            updateTripData(tripData);
+            deleteTripsByTripDataId(id);
+        }
+        insertTrips(id, tripData);
+        return id;
+    }
+
+    /**
+     * Saves a TripData object of the user. The trips that have been searched in the background
+     * for the same event are removed, because they are superseded. A TripData object that has
+     * been searched in the background itself (e.g. after the user has removed one of its trips)
+     * only updates its own row and stays a suggestion.
+     *
+     * @param tripData the TripData object that is supposed to be saved
+     * @return the id of the row
+     */
+    @Transaction
+    public long save(TripData tripData) {
+        if (tripData.isPrefetched()) return upsert(tripData);
+
+        deletePrefetchedByEventId(tripData.getEventId());
+        return upsert(tripData);
+    }
+
+    /**
+     * Replaces the trips that have been searched in the background for the event instance,
+     * unless the user has saved trips for the event or deleted the trips of the instance in the
+     * meantime
+     *
+     * @param tripData the TripData object containing the new trips, its eventId and instanceTime
+     *                 have to be set
+     * @return the id of the row or -1 if the user has saved or deleted trips for the event
+     */
+    @Transaction
+    public long replacePrefetched(TripData tripData) {
+        if (countSavedByEventId(tripData.getEventId()) > 0) return -1;
+        if (isDismissed(tripData.getEventId(), tripData.getInstanceTime())) return -1;
+
+        tripData.setPrefetched(true);
+        deletePrefetchedByInstance(tripData.getEventId(), tripData.getInstanceTime());
+        return insert(tripData);
+    }
+
+    /**
+     * Replaces the trips that have been searched in the background for several event instances
+     * in a single transaction, see replacePrefetched
+     *
+     * @param tripData the TripData objects containing the new trips
+     * @return the ids of the rows in the order of the provided objects, -1 for skipped objects
+     */
+    @Transaction
+    public long[] replacePrefetched(List<TripData> tripData) {
+        long[] ids = new long[tripData.size()];
+        for (int i = 0; i < ids.length; i++) ids[i] = replacePrefetched(tripData.get(i));
+        return ids;
+    }
+
+    /**
+     * Deletes a TripData object of the user. If its trips have been searched in the background,
+     * the deletion is recorded, so that they are not searched again.
+     *
+     * @param tripData the TripData object that is supposed to be deleted
+     */
+    @Transaction
+    public void remove(TripData tripData) {
+        if (tripData.isPrefetched())
+            insertDismissal(new PrefetchDismissal(tripData.getEventId(), tripData.getInstanceTime()));
+        delete(tripData);
+    }
+
+    /**
+     * Deletes the trips that have been searched in the background and the recorded deletions of
+     * event instances that have already started
+     *
+     * @param time the current time in milliseconds
+     */
+    @Transaction
+    public void deleteExpiredPrefetched(long time) {
+        deletePrefetchedBefore(time);
+        deleteDismissalsBefore(time);
+    }
+
+    /**
+     * @return whether the user has deleted the trips that have been searched in the background
+     * for the event instance
+     */
+    public boolean isDismissed(long eventId, long instanceTime) {
+        return countDismissals(eventId, instanceTime) > 0;
+    }
+
+    @Query(COUNT_SAVED_BY_EVENT_ID)
+    public abstract int countSavedByEventId(long eventId);
+
+    /**
+     * @return the number of TripData objects that have been searched in the background for the
+     * event instance
+     */
+    @Query(COUNT_PREFETCHED_BY_INSTANCE)
+    public abstract int countPrefetched(long eventId, long instanceTime);
+
+    @Query(DELETE_PREFETCHED_BY_EVENT_ID)
+    public abstract void deletePrefetchedByEventId(long eventId);
+
+    // trips, legs and stops are removed by the foreign keys
+    @Query(DELETE_BY_EVENT_ID)
+    public abstract void deleteByEventId(long eventId);
+
+    @Delete
+    public abstract void delete(TripData data);
+
+    // ---- NORMALISED QUERIES ---- //
+
+    @Query(SELECT_NEXT_DEPARTURE)
+    public abstract TripEntry getNextDeparture(long from, long to);
+
+    @Query(SELECT_LEGS_BY_TRIP_ID)
+    public abstract List<LegEntry> getLegs(long tripId);
+
+    @Query(SELECT_STOPS_BY_LEG_ID)
+    public abstract List<StopEntry> getStops(long legId);
+
+    // ---- INTERNAL ---- //
 
     @Insert
-    void insert(TripData tripData);
+    protected abstract long insertTripData(TripData tripData);
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    protected abstract long insertOrIgnoreTripData(TripData tripData);
 
     @Update
-    void update(TripData tripData);
+    protected abstract void updateTripData(TripData tripData);
 
-    @Query("DELETE FROM tripdata where tripdata.eventId = :eventId")
-    void deleteByEventId(long eventId);
+    @Insert
+    protected abstract long insertTrip(TripEntry trip);
 
-    @Delete
-    void delete(TripData data);
+    @Insert
+    protected abstract long insertLeg(LegEntry leg);
+
+    @Insert
+    protected abstract void insertStop(StopEntry stop);
+
+    @Query(DELETE_TRIPS_BY_TRIP_DATA_ID)
+    protected abstract void deleteTripsByTripDataId(long tripDataId);
+
+    @Query(DELETE_PREFETCHED_BY_INSTANCE)
+    protected abstract void deletePrefetchedByInstance(long eventId, long instanceTime);
+
+    @Query(DELETE_PREFETCHED_BEFORE)
+    protected abstract void deletePrefetchedBefore(long time);
+
+    @Query(COUNT_DISMISSALS)
+    protected abstract int countDismissals(long eventId, long instanceTime);
+
+    @Query(DELETE_DISMISSALS_BEFORE)
+    protected abstract void deleteDismissalsBefore(long time);
+
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    protected abstract void insertDismissal(PrefetchDismissal dismissal);
+
+    /**
+     * Splits the trips of the TripData object into the trip, leg and stop tables
+     *
+     * @param tripDataId the id of the stored TripData object
+     * @param tripData   the TripData object
+     */
+    private void insertTrips(long tripDataId, TripData tripData) {
+        Trip[] trips = tripData.getTrips();
+        if (trips == null) return;
+
+        for (int i = 0; i < trips.length; i++) {
+            long tripId = insertTrip(TripEntry.of(tripDataId, tripData.getEventId(), i, trips[i]));
+
+            Leg[] legs = trips[i].getLeglist() == null ? null : trips[i].getLeglist().getLegs();
+            if (legs == null) continue;
+
+            for (int j = 0; j < legs.length; j++) {
+                long legId = insertLeg(LegEntry.of(tripId, j, legs[j]));
+
+                if (legs[j].getOrigin() != null)
+                    insertStop(StopEntry.of(legId, tripData.getEventId(), StopEntry.ORIGIN, legs[j].getOrigin()));
+                if (legs[j].getDestination() != null)
+                    insertStop(StopEntry.of(legId, tripData.getEventId(), StopEntry.DESTINATION, legs[j].getDestination()));
+            }
+        }
+    }
 
 }
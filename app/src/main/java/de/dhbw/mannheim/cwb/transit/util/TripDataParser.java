@@ -0,0 +1,113 @@
+package de.dhbw.mannheim.cwb.transit.util;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.dhbw.mannheim.cwb.transit.pojo.TripData;
+import de.dhbw.mannheim.cwb.util.JsonMapping;
+
+/**
+ * Decodes the JSON responses of the RMV trip API directly from the response stream. The reader is
+ * shared and its deserializers are created once when the class is loaded. Fields that are not
+ * part of the POJOs are skipped by the parser without being bound.
+ */
+public final class TripDataParser {
+
+    private static final ObjectReader READER = JsonMapping.TRIP_DATA_READER;
+
+    private static final AtomicLong responses = new AtomicLong();
+    private static final AtomicLong totalBytes = new AtomicLong();
+    private static final AtomicLong totalParseNanos = new AtomicLong();
+
+    static {
+        // create the deserializers for TripData and all nested POJOs up front
+        try {
+            READER.readValue("{}");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private TripDataParser() {
+    }
+
+    /**
+     * Parses the TripData object from the provided stream. The stream is consumed and closed.
+     *
+     * @param in the stream containing the JSON response of the RMV API
+     * @return the parsed TripData object
+     * @throws IOException if the stream can't be read or does not contain a valid response
+     */
+    public static TripData parse(InputStream in) throws IOException {
+        CountingInputStream counter = new CountingInputStream(in);
+        long start = System.nanoTime();
+        try {
+            return READER.readValue(counter);
+        } finally {
+            responses.incrementAndGet();
+            totalBytes.addAndGet(counter.count);
+            totalParseNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    // ---- COUNTERS ---- //
+
+    /**
+     * @return the number of responses that have been parsed
+     */
+    public static long getResponseCount() {
+        return responses.get();
+    }
+
+    /**
+     * @return the number of bytes that have been read from all responses
+     */
+    public static long getBytesParsed() {
+        return totalBytes.get();
+    }
+
+    /**
+     * @return the average time in milliseconds it took to read and parse a response
+     */
+    public static double getAverageParseMillis() {
+        long count = responses.get();
+        return count == 0 ? 0 : totalParseNanos.get() / 1e6 / count;
+    }
+
+    // ------------------ //
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+package de.dhbw.mannheim.cwb.transit.util
+
+import android.content.Context
+import androidx.annotation.WorkerThread
+import androidx.lifecycle.LiveData
+import androidx.room.InvalidationTracker
+import de.dhbw.mannheim.cwb.transit.pojo.StopEntry
+import de.dhbw.mannheim.cwb.transit.pojo.TripData
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.callbackFlow
+import kotlinx.coroutines.flow.conflate
+import kotlinx.coroutines.flow.flowOn
+import kotlinx.coroutines.flow.map
+
+/**
+ * Read access to the saved journeys. Queries are available as blocking calls for background jobs
+ * and as Flow that emits whenever the TripData table changes, the TripData objects of an event
+ * as LiveData for the views. All database work runs on the database lane of the TransitExecutor.
+ */
+class TripDataRepository private constructor(context: Context) {
+
+    private val database = AsyncRoutePlanner.getOrInitDatabase(context.applicationContext)
+    private val dao get() = database.tripDataDAO()
+
+    // ---- BLOCKING ---- //
+
+    /**
+     * Finds the first saved trip that departs within the provided time span. The trip, its first
+     * leg and the origin of that leg are read from the normalised tables, so no TripData object
+     * has to be decoded.
+     *
+     * @param from the earliest departure in milliseconds since the epoch
+     * @param to   the end of the time span in milliseconds since the epoch (exclusive)
+     * @return the departure or null if no saved trip departs within the time span
+     */
+    @WorkerThread
+    fun getNextDeparture(from: Long, to: Long): Departure? = database.runInTransaction<Departure?> {
+        dao.getNextDeparture(from, to)?.let { trip ->
+            val leg = dao.getLegs(trip.id).firstOrNull()
+            val origin = leg?.let { first ->
+                dao.getStops(first.id).firstOrNull { it.role == StopEntry.ORIGIN }
+            }
+            Departure(trip.eventId, trip.departure, leg?.name?.trim(), origin?.name)
+        }
+    }
+
+    // ---- OBSERVABLE ---- //
+
+    fun observeNextDeparture(from: Long, to: Long): Flow<Departure?> =
+        observe { getNextDeparture(from, to) }
+
+    // Room creates the LiveData without touching the database, so no background task is needed
+    fun liveTripDataByEventId(eventId: Long): LiveData<List<TripData>> =
+        dao.getTripDataByEventId(eventId)
+
+    /**
+     * Runs the query once immediately and again whenever the TripData table was invalidated.
+     * Invalidations that arrive while a query is running are merged into a single query.
+     */
+    private fun <T> observe(query: () -> T): Flow<T> = callbackFlow {
+        val observer = object : InvalidationTracker.Observer(TABLE) {
+            override fun onInvalidated(tables: MutableSet<String>) {
+                offer(Unit)
+            }
+        }
+
+        offer(Unit)
+        database.invalidationTracker.addObserver(observer)
+        awaitClose { database.invalidationTracker.removeObserver(observer) }
+    }.conflate().map { query() }.flowOn(DISPATCHER)
+
+    /**
+     * The departure of a saved trip
+     *
+     * @param eventId the identifier of the event the trip belongs to
+     * @param time    the departure in milliseconds since the epoch
+     * @param line    the name of the first leg, e.g. a line or a walk
+     * @param stop    the name of the stop the trip starts at
+     */
+    data class Departure(val eventId: Long, val time: Long, val line: String?, val stop: String?)
+
+    companion object {
+
+        private const val TABLE = "TripData"
+
+        private val DISPATCHER = TransitExecutor.DATABASE.asCoroutineDispatcher()
+
+        @Volatile
+        private var instance: TripDataRepository? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): TripDataRepository = instance ?: synchronized(this) {
+            instance ?: TripDataRepository(context).also { instance = it }
+        }
+
+    }
+
+}
@@ -1,12 +1,15 @@
 package de.dhbw.mannheim.cwb.transit.util;
 
+import com.squareup.okhttp.Call;
 import com.squareup.okhttp.Callback;
+import com.squareup.okhttp.OkHttpClient;
 import com.squareup.okhttp.Request;
 import com.squareup.okhttp.Response;
 
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -14,63 +17,110 @@ import java.util.concurrent.TimeoutException;
 
 /**
  * @author Lukas Rothenbach
- * Responsible for performing an asynch okHttp Request
+ * Responsible for performing an asynch okHttp Request. Cancelling the request aborts the
+ * underlying okHttp call, even if it is already in flight.
  */
 public class WebRequest implements Future<Response>, Callback {
 
     private final Object LOCK = new Object();
+    private final Call call;
+
     private Response response;
     private IOException failure;
+    private boolean cancelled;
+
+    private WebRequest(Call call) {
+        this.call = call;
+    }
+
+    /**
+     * Enqueues the request with the given client.
+     *
+     * @param client  the okHttp Client that is supposed to perform the request
+     * @param request the request that is supposed to be performed
+     * @return the pending request
+     */
+    public static WebRequest enqueue(OkHttpClient client, Request request) {
+        WebRequest webRequest = new WebRequest(client.newCall(request));
+        webRequest.call.enqueue(webRequest);
+        return webRequest;
+    }
 
-    // can't be cancelled
     @Override
     public boolean cancel(boolean mayInterruptIfRunning) {
-        return false;
+        synchronized (LOCK) {
+            if (isDone()) return false;
+
+            cancelled = true;
+            LOCK.notifyAll();
+        }
+        call.cancel();
+        return true;
     }
 
     @Override
     public boolean isCancelled() {
-        return false;
+        synchronized (LOCK) {
+            return cancelled;
+        }
     }
 
     @Override
     public boolean isDone() {
-        return response != null || failure != null;
+        synchronized (LOCK) {
+            return response != null || failure != null || cancelled;
+        }
     }
 
     @Override
     public Response get() throws ExecutionException, InterruptedException {
         synchronized (LOCK) {
-            if (!isDone()) LOCK.wait();
+            while (!isDone()) LOCK.wait();
 
-            if (response != null) return response;
-            else throw new ExecutionException(failure);
+            return getResult();
         }
     }
 
     @Override
-    public Response get(long timeout, @NotNull TimeUnit unit) throws ExecutionException, InterruptedException {
+    public Response get(long timeout, @NotNull TimeUnit unit) throws ExecutionException, InterruptedException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
         synchronized (LOCK) {
-            if (!isDone()) unit.timedWait(LOCK, timeout);
+            while (!isDone()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) throw new TimeoutException("No response within " + timeout + " " + unit);
+                TimeUnit.NANOSECONDS.timedWait(LOCK, remaining);
+            }
 
-            if (response != null) return response;
-            else throw new ExecutionException(failure);
+            return getResult();
         }
     }
 
+    private Response getResult() throws ExecutionException {
+        if (cancelled) throw new CancellationException();
+        if (response != null) return response;
+        else throw new ExecutionException(failure);
+    }
+
     @Override
     public void onFailure(Request request, IOException e) {
         synchronized (LOCK) {
+            if (cancelled) return;
+
             failure = e;
             LOCK.notifyAll();
         }
     }
 
     @Override
-    public void onResponse(Response response) {
+    public void onResponse(Response response) throws IOException {
         synchronized (LOCK) {
-            this.response = response;
-            LOCK.notifyAll();
+            if (!cancelled) {
+                this.response = response;
+                LOCK.notifyAll();
+                return;
+            }
         }
+        // nobody is going to read the response of a cancelled request
+        response.body().close();
     }
 }
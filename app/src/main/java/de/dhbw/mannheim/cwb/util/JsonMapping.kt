@@ -0,0 +1,64 @@
+package de.dhbw.mannheim.cwb.util
+
+import com.fasterxml.jackson.databind.DeserializationFeature
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.databind.ObjectReader
+import com.fasterxml.jackson.databind.ObjectWriter
+import com.fasterxml.jackson.dataformat.smile.SmileFactory
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator
+import de.dhbw.mannheim.cwb.transit.pojo.Trip
+import de.dhbw.mannheim.cwb.transit.pojo.TripData
+import de.dhbw.mannheim.cwb.weather.model.OneCallWeather
+
+/**
+ * The Jackson configuration of the app. ObjectReader and ObjectWriter are immutable and thread
+ * safe, so they are created once and shared. They cache the (de-)serializers of their type,
+ * which would otherwise be rebuilt for every new ObjectMapper. The mappers themselves stay
+ * private, as a configuration change would not reach the readers and writers created before.
+ */
+object JsonMapping {
+
+    private val MAPPER: ObjectMapper = ObjectMapper()
+        .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+
+    /**
+     * Mapper for the binary JSON format Smile. Repeated strings (e.g. stop names) are written
+     * as back references to their first occurrence.
+     */
+    private val SMILE_MAPPER: ObjectMapper = ObjectMapper(
+        SmileFactory().enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+    ).disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+
+    // ---- TRANSIT ---- //
+
+    @JvmField
+    val TRIP_DATA_READER: ObjectReader = MAPPER.readerFor(TripData::class.java)
+
+    @JvmField
+    val TRIP_DATA_WRITER: ObjectWriter = MAPPER.writerFor(TripData::class.java)
+
+    @JvmField
+    val TRIPS_READER: ObjectReader = MAPPER.readerFor(Array<Trip>::class.java)
+
+    @JvmField
+    val TRIPS_WRITER: ObjectWriter = MAPPER.writerFor(Array<Trip>::class.java)
+
+    // trips in the binary format of the journey database
+    @JvmField
+    val TRIPS_SMILE_READER: ObjectReader = SMILE_MAPPER.readerFor(Array<Trip>::class.java)
+
+    @JvmField
+    val TRIPS_SMILE_WRITER: ObjectWriter = SMILE_MAPPER.writerFor(Array<Trip>::class.java)
+
+    @JvmField
+    val COORDINATES_READER: ObjectReader = MAPPER.readerFor(DoubleArray::class.java)
+
+    @JvmField
+    val COORDINATES_WRITER: ObjectWriter = MAPPER.writerFor(DoubleArray::class.java)
+
+    // ---- WEATHER ---- //
+
+    @JvmField
+    val ONE_CALL_WEATHER_READER: ObjectReader = MAPPER.readerFor(OneCallWeather::class.java)
+
+}
@@ -10,7 +10,6 @@ import android.database.ContentObserver
 import android.graphics.Color
 import android.graphics.PorterDuff
 import android.graphics.PorterDuffColorFilter
-import android.location.Geocoder
 import android.net.Uri
 import android.os.Bundle
 import android.provider.CalendarContract
@@ -31,6 +30,7 @@ import androidx.fragment.app.FragmentTransaction
 import androidx.fragment.app.activityViewModels
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.MediatorLiveData
+import androidx.lifecycle.Transformations
 import androidx.preference.PreferenceManager
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import com.google.android.material.snackbar.Snackbar
@@ -41,6 +41,9 @@ import de.dhbw.mannheim.cwb.transit.pojo.Stop
 import de.dhbw.mannheim.cwb.transit.pojo.Trip
 import de.dhbw.mannheim.cwb.transit.pojo.TripData
 import de.dhbw.mannheim.cwb.transit.util.AsyncRoutePlanner
+import de.dhbw.mannheim.cwb.transit.util.LocationParser
+import de.dhbw.mannheim.cwb.transit.util.TransitExecutor
+import de.dhbw.mannheim.cwb.transit.util.TripDataRepository
 import de.dhbw.mannheim.cwb.util.formatLocalDateTime
 import de.dhbw.mannheim.cwb.util.formatTemporal
 import de.dhbw.mannheim.cwb.util.formatTemporalRange
@@ -55,6 +58,7 @@ import de.dhbw.mannheim.cwb.view.transit.TransitViewModel
 import de.dhbw.mannheim.cwb.view.transit.ViewTransitTripDialog
 import de.dhbw.mannheim.cwb.view.weather.SharedWeatherModel
 import de.dhbw.mannheim.cwb.weather.OWM
+import de.dhbw.mannheim.cwb.weather.WeatherRepository
 import de.dhbw.mannheim.cwb.weather.model.OneCallWeather
 import java.lang.Exception
 import java.time.Duration
@@ -67,7 +71,10 @@ import java.time.ZoneOffset
 import java.time.temporal.ChronoUnit
 import java.time.temporal.Temporal
 import java.util.*
+import java.util.concurrent.ExecutionException
 import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
 import kotlin.concurrent.thread
 import kotlin.math.pow
 import kotlin.math.roundToInt
@@ -417,7 +424,11 @@ class RouteFragment : LiveFragment<List<Route>>() {
         }, *t.mapIndexed { index, trip ->
             val binding = MaterialListEntryViewBinding.inflate(layoutInflater)
 
-            binding.title.text = getString(R.string.numbered_trip, index + 1)
+            // routes that have been searched in the background are only suggestions
+            binding.title.text = getString(
+                if (trip.tripData.isPrefetched) R.string.numbered_suggested_trip
+                else R.string.numbered_trip, index + 1
+            )
 
             binding.subtitle.text =
                 listOf(trip.origin, trip.destination).joinToString(separator = "\n") {
@@ -483,7 +494,12 @@ class WeatherFragment : LiveFragment<OneCallWeather>() {
         EventData(requireContext().contentResolver, requireArguments().getLong("event_id"))
     }
 
-    override val data: LiveData<OneCallWeather> get() = sharedWeather.oneCallWeather
+    override val data: LiveData<OneCallWeather> by lazy {
+        // the hourly forecast of events today is refreshed more often than a daily forecast
+        sharedWeather.oneCallWeather(Transformations.map(event) {
+            WeatherRepository.Horizon.of(it.start.toLocalDate(), !it.allDay)
+        })
+    }
 
     private val preferenceListener =
         SharedPreferences.OnSharedPreferenceChangeListener { preferences, key ->
@@ -508,8 +524,7 @@ class WeatherFragment : LiveFragment<OneCallWeather>() {
             } else thread {
                 try {
                     sharedWeather.location.postValue(
-                        Geocoder(requireContext()).getFromLocationName(it.location, 1)
-                            .singleOrNull()
+                        LocationParser.getLocationFromAddress(requireContext(), it.location)
                     )
                 } catch (e: Exception) {
                     System.err.println(e::class.qualifiedName + ": " + e.message)
@@ -708,7 +723,12 @@ data class Reminder(
 data class Route(
     val tripData: TripData, val source: Trip, val origin: Stop, val destination: Stop
 ) {
-    data class Stop(val name: String, val time: LocalDateTime)
+    data class Stop(val name: String, val epochMinute: Long) {
+        val time: LocalDateTime
+            get() = LocalDateTime.ofInstant(
+                Instant.ofEpochSecond(TimeUnit.MINUTES.toSeconds(epochMinute)), ZoneId.systemDefault()
+            )
+    }
 }
 
 // ------------------------------------------------------ //
@@ -916,38 +936,135 @@ private class RouteData(
 ) : MediatorLiveData<List<Route>>() {
 
     private val routeLiveData: LiveData<List<TripData>> by lazy {
-        AsyncRoutePlanner.getJourneyDetails(context, eventId).get()
+        TripDataRepository.getInstance(context).liveTripDataByEventId(eventId)
     }
 
+    // the routes of each TripData object by its id, accessed only on the executor
+    private var projections: Map<Long, Projection> = emptyMap()
+
     init {
         addSource(routeLiveData, this::updateData)
     }
 
-    private fun updateData(data: List<TripData>?) {
-        if (data.isNullOrEmpty()) postValue(emptyList())
-        else thread {
-            val geocoder = Geocoder(context)
+    private fun updateData(data: List<TripData>?) = executor.execute { project(data.orEmpty()) }
+
+    /**
+     * Converts the TripData objects into routes. TripData objects that have not changed since
+     * the last emission are not converted again, so emissions caused by changes of other events
+     * do not cause any lookups.
+     */
+    private fun project(data: List<TripData>) {
+        val hashes = data.map { contentHash(it) }
+        val unchanged = data.size == projections.size && data.indices.all { index ->
+            projections[data[index].id]?.hash == hashes[index]
+        }
+        if (unchanged && value != null) return
 
-            fun Stop.toStop(): Route.Stop = Route.Stop(
-                geocoder.getFromLocation(lat, lon, 1).singleOrNull()?.locality ?: name,
-                LocalDateTime.parse(date + "T" + time)
-            )
+        val missing = data.indices.filter { index ->
+            projections[data[index].id]?.hash != hashes[index]
+        }
 
-            // query all trips that are associated with this event
-            val trips = mutableListOf<Route>()
+        // the localities of all new stops, each coordinate is only looked up once
+        val localities = resolveLocalities(missing.flatMap { index ->
+            data[index].trips.orEmpty().flatMap { trip -> listOfNotNull(trip.origin, trip.destination) }
+        })
+
+        val next = LinkedHashMap<Long, Projection>()
+        data.forEachIndexed { index, tripData ->
+            next[tripData.id] = projections[tripData.id]?.takeIf { it.hash == hashes[index] }
+                ?: Projection(hashes[index], tripData.trips.orEmpty().mapNotNull { trip ->
+                    val origin = trip.origin
+                    val destination = trip.destination
+
+                    if (origin != null && destination != null) Route(
+                        tripData, trip, origin.toStop(localities), destination.toStop(localities)
+                    ) else null
+                })
+        }
+        projections = next
 
-            data.forEach { tripData ->
-                tripData.trips?.forEach { trip ->
-                    val origin = trip.leglist.legs.firstOrNull()?.origin
-                    val destination = trip.leglist.legs.lastOrNull()?.destination
+        postValue(next.values.flatMap { it.routes }.sortedBy { it.origin.epochMinute })
+    }
 
-                    if (origin != null && destination != null) trips.add(
-                        Route(tripData, trip, origin.toStop(), destination.toStop())
-                    )
-                }
+    /**
+     * Looks up the localities of the stops. The executor is shared by all events, so a hanging
+     * geocoder must not block it: stops whose lookup is rejected or does not finish in time keep
+     * the name of the RMV API.
+     */
+    private fun resolveLocalities(stops: List<Stop>): Map<Pair<Double, Double>, String?> {
+        val lookups = stops.map { it.lat to it.lon }.distinct().map { coordinates ->
+            coordinates to TransitExecutor.GEOCODING.submit<String> {
+                LocationParser.getLocationFromCoordinates(
+                    context, coordinates.first, coordinates.second
+                )?.locality
+            }
+        }
+
+        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(LOOKUP_TIMEOUT_SECONDS)
+        return lookups.map { (coordinates, task) ->
+            coordinates to try {
+                task.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)
+            } catch (e: TimeoutException) {
+                task.cancel(true)
+                null
+            } catch (e: ExecutionException) {
+                if (!task.isRejected) (e.cause ?: e).printStackTrace()
+                null
             }
+        }.toMap()
+    }
+
+    private fun Stop.toStop(localities: Map<Pair<Double, Double>, String?>) =
+        Route.Stop(localities[lat to lon] ?: name, epochMinute)
+
+    private class Projection(val hash: Int, val routes: List<Route>)
+
+    companion object {
+        // shared by all events, so that projections do not compete with each other
+        private val executor =
+            Executors.newSingleThreadExecutor { Thread(it).also { it.isDaemon = true } }
+
+        // the time all lookups of a projection may take together
+        private const val LOOKUP_TIMEOUT_SECONDS = 5L
 
-            postValue(trips.sortedBy { it.origin.time })
+        private val Trip.origin: Stop?
+            get() = leglist?.legs?.firstOrNull()?.origin?.takeIf {
+                it.epochMinute != Stop.UNKNOWN_TIME
+            }
+
+        private val Trip.destination: Stop?
+            get() = leglist?.legs?.lastOrNull()?.destination?.takeIf {
+                it.epochMinute != Stop.UNKNOWN_TIME
+            }
+
+        /**
+         * A hash over the parts of the TripData object that are shown or written back, so that
+         * unchanged objects can be recognized after they have been decoded again. The routes of
+         * an unchanged object keep the object of an earlier emission, which is only equivalent
+         * if all of its columns are part of the hash.
+         */
+        private fun contentHash(tripData: TripData): Int {
+            var hash = tripData.eventId.hashCode()
+            hash = 31 * hash + tripData.isPrefetched.hashCode()
+            hash = 31 * hash + tripData.instanceTime.hashCode()
+            hash = 31 * hash + (tripData.dataSource?.hashCode() ?: 0)
+            hash = 31 * hash + (tripData.earlierContext?.hashCode() ?: 0)
+            hash = 31 * hash + (tripData.laterContext?.hashCode() ?: 0)
+            tripData.trips?.forEach { trip ->
+                trip.leglist?.legs?.forEach { leg ->
+                    hash = 31 * hash + (leg.name?.hashCode() ?: 0)
+                    hash = 31 * hash + (leg.type?.hashCode() ?: 0)
+                    listOfNotNull(leg.origin, leg.destination).forEach { stop ->
+                        hash = 31 * hash + (stop.name?.hashCode() ?: 0)
+                        hash = 31 * hash + stop.epochMinute.hashCode()
+                        hash = 31 * hash + stop.lat.hashCode()
+                        hash = 31 * hash + stop.lon.hashCode()
+                        hash = 31 * hash + (stop.track?.hashCode() ?: 0)
+                    }
+                }
+                hash = 31 * hash + 1
+            }
+            return hash
         }
     }
 
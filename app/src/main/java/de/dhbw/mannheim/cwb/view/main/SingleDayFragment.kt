@@ -17,9 +17,12 @@ import androidx.core.database.getStringOrNull
 import androidx.fragment.app.Fragment
 import androidx.fragment.app.activityViewModels
 import androidx.lifecycle.LiveData
+import androidx.lifecycle.MutableLiveData
 import androidx.recyclerview.widget.LinearLayoutManager
 import androidx.recyclerview.widget.RecyclerView
 import de.dhbw.mannheim.cwb.R
+import de.dhbw.mannheim.cwb.transit.util.TripDataRepository
+import de.dhbw.mannheim.cwb.util.formatLocalTime
 import de.dhbw.mannheim.cwb.util.formatTemporal
 import de.dhbw.mannheim.cwb.util.formatTemporalRange
 import de.dhbw.mannheim.cwb.util.toInstant
@@ -28,6 +31,7 @@ import de.dhbw.mannheim.cwb.view.calendar.EventViewActivity
 import de.dhbw.mannheim.cwb.view.settings.SettingsActivity
 import de.dhbw.mannheim.cwb.view.weather.SharedWeatherModel
 import de.dhbw.mannheim.cwb.weather.OWM
+import de.dhbw.mannheim.cwb.weather.WeatherRepository
 import de.dhbw.mannheim.cwb.weather.model.OneCallWeather
 import java.time.Instant
 import java.time.LocalDate
@@ -38,6 +42,10 @@ import java.time.format.FormatStyle
 import java.time.temporal.JulianFields
 import java.time.temporal.Temporal
 import java.util.concurrent.FutureTask
+import kotlinx.coroutines.MainScope
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.flow.collect
+import kotlinx.coroutines.launch
 import kotlin.math.roundToInt
 
 class SingleDayFragment : Fragment(R.layout.main_single_day_fragment) {
@@ -47,9 +55,18 @@ class SingleDayFragment : Fragment(R.layout.main_single_day_fragment) {
 
     private val sharedWeatherModel: SharedWeatherModel by activityViewModels()
 
+    // collects the next departure while the fragment exists
+    private val scope = MainScope()
+
     // ----------------------------------------------------- //
 
-    private val weather: LiveData<OneCallWeather> by lazy { sharedWeatherModel.oneCallWeather }
+    private val weather: LiveData<OneCallWeather> by lazy {
+        // the weather of days ahead is refreshed less often than the current weather,
+        // the precipitation of the current hour is shown today and refreshed most often
+        sharedWeatherModel.oneCallWeather(
+            MutableLiveData(WeatherRepository.Horizon.of(date, minutely = true))
+        )
+    }
     private val events: LiveData<List<EventInstance>> by lazy {
         EventData(requireActivity().contentResolver, date)
     }
@@ -63,11 +80,26 @@ class SingleDayFragment : Fragment(R.layout.main_single_day_fragment) {
         entryAdapter = SingleDayEntryAdapter(layoutInflater).apply {
             addSublist("weather")
             addSublist("weather.alerts")
+            addSublist("transit.departure")
             addSublist("calendar.events")
         }
 
         weather.observe(this, this::updateWeather)
         events.observe(this, this::updateEvents)
+
+        // the first saved trip of the day that has not departed yet
+        val start = date.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli()
+        val end = date.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli()
+        scope.launch {
+            TripDataRepository.getInstance(requireContext())
+                .observeNextDeparture(maxOf(start, System.currentTimeMillis()), end)
+                .collect { updateDeparture(it) }
+        }
+    }
+
+    override fun onDestroy() {
+        super.onDestroy()
+        scope.cancel()
     }
 
     override fun onViewCreated(view: View, savedInstanceState: Bundle?) {
@@ -135,6 +167,17 @@ class SingleDayFragment : Fragment(R.layout.main_single_day_fragment) {
                 else -> { temp: Double -> "${temp.roundToInt()} K" }
             }
 
+            // the start and the strongest intensity of the precipitation within the next hour
+            fun formatPrecipitation(): String? {
+                val now = Instant.now()
+                val upcoming = minutelyWeather?.filter { it.time >= now.minusSeconds(60) }
+                val start = upcoming?.firstOrNull { it.precipitation > 0 } ?: return null
+                return getString(
+                    R.string.precipitation_next_hour, formatLocalTime(start.time.atZone(timeZone)),
+                    upcoming.maxOf { it.precipitation }
+                )
+            }
+
             fun addWeatherEntry(title: String, subtitle: String, icon: String) {
                 weather.add(
                     DayEntry(title, subtitle, icon = when (icon) {
@@ -157,8 +200,9 @@ class SingleDayFragment : Fragment(R.layout.main_single_day_fragment) {
 
             if (date == LocalDate.now()) currentWeather?.let {
                 addWeatherEntry(
-                    it.weather.first().description, formatTemperature(it.temperature),
-                    it.weather.first().icon
+                    it.weather.first().description,
+                    listOfNotNull(formatTemperature(it.temperature), formatPrecipitation())
+                        .joinToString(separator = "\n"), it.weather.first().icon
                 )
             } else dailyWeather?.first {
                 it.time.atZone(timeZone).toLocalDate() == date
@@ -191,6 +235,28 @@ class SingleDayFragment : Fragment(R.layout.main_single_day_fragment) {
         }
     }
 
+    private fun updateDeparture(departure: TripDataRepository.Departure?) {
+        val departures = entryAdapter.sublist("transit.departure").apply { clear() }
+        if (departure == null) return
+
+        val time = Instant.ofEpochMilli(departure.time).atZone(ZoneId.systemDefault())
+        departures.add(
+            DayEntry(title = getString(R.string.next_departure, formatLocalTime(time)),
+                subtitle = listOfNotNull(departure.line, departure.stop).joinToString(" · ")
+                    .takeIf { it.isNotEmpty() },
+                icon = ResourcesCompat.getDrawable(resources, R.drawable.ic_baseline_train_24, null),
+                onClick = {
+                    requireContext().startActivity(
+                        Intent(
+                            Intent.ACTION_VIEW, ContentUris.withAppendedId(
+                                CalendarContract.Events.CONTENT_URI, departure.eventId
+                            ), context, EventViewActivity::class.java
+                        )
+                    )
+                })
+        )
+    }
+
     private fun updateEvents(events: List<EventInstance>?) {
         if (events == null) return
 
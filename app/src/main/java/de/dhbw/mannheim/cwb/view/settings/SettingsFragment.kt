@@ -1,18 +1,32 @@
 package de.dhbw.mannheim.cwb.view.settings
 
+import android.net.Uri
 import android.os.Bundle
+import android.os.Handler
+import android.os.Looper
+import android.os.Process
+import androidx.activity.result.contract.ActivityResultContracts
 import androidx.preference.EditTextPreference
 import androidx.preference.ListPreference
+import androidx.preference.Preference
 import androidx.preference.PreferenceDataStore
 import androidx.preference.PreferenceFragmentCompat
 import de.dhbw.mannheim.cwb.R
+import de.dhbw.mannheim.cwb.transit.util.GtfsTransitProvider
 import de.dhbw.mannheim.cwb.transit.util.LocationParser
 import de.dhbw.mannheim.cwb.weather.OWM
 import java.io.IOException
 import java.util.concurrent.FutureTask
+import kotlin.concurrent.thread
 
 class SettingsFragment : PreferenceFragmentCompat() {
 
+    private val mainThread = Handler(Looper.getMainLooper())
+
+    private val pickFeed = registerForActivityResult(ActivityResultContracts.GetContent()) {
+        if (it != null) importFeed(it)
+    }
+
     override fun onCreatePreferences(savedInstanceState: Bundle?, rootKey: String?) {
         addPreferencesFromResource(R.xml.root_preferences)
 
@@ -78,6 +92,50 @@ class SettingsFragment : PreferenceFragmentCompat() {
             entryValues = units.map { it.name }.toTypedArray()
         }
 
+        findPreference<Preference>("transit_timetable")?.apply {
+            setSummary(
+                if (GtfsTransitProvider.hasTimetable(context)) R.string.settings_transit_timetable_available
+                else R.string.settings_transit_timetable_missing
+            )
+
+            setOnPreferenceClickListener {
+                pickFeed.launch("application/zip")
+                true
+            }
+        }
+
+    }
+
+    /**
+     * Imports a GTFS feed on its own thread. The import of a regional feed may take minutes, so it
+     * must not occupy a thread of the lanes that are used by route searches.
+     */
+    private fun importFeed(uri: Uri) {
+        val preference = findPreference<Preference>("transit_timetable") ?: return
+        val context = requireContext().applicationContext
+
+        fun finish(summary: Int) = mainThread.post {
+            preference.isEnabled = true
+            preference.setSummary(summary)
+        }
+
+        preference.isEnabled = false
+        preference.setSummary(R.string.settings_transit_timetable_importing)
+
+        thread(name = "gtfs-import") {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND)
+            try {
+                context.contentResolver.openInputStream(uri)?.use {
+                    GtfsTransitProvider.importFeed(context, it)
+                } ?: throw IOException("Could not open $uri")
+
+                finish(R.string.settings_transit_timetable_available)
+            } catch (e: Exception) {
+                // malformed feeds may also fail with e.g. a NumberFormatException
+                e.printStackTrace()
+                finish(R.string.settings_transit_timetable_failed)
+            }
+        }
     }
 
 }
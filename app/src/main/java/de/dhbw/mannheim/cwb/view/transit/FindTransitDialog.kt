@@ -9,24 +9,23 @@ import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
 import android.widget.TextView
-import androidx.core.content.res.ResourcesCompat
 import androidx.fragment.app.Fragment
 import androidx.fragment.app.activityViewModels
 import androidx.lifecycle.MutableLiveData
+import androidx.recyclerview.widget.LinearLayoutManager
 import com.google.android.material.datepicker.CalendarConstraints
 import com.google.android.material.datepicker.MaterialDatePicker
 import com.google.android.material.snackbar.Snackbar
 import com.google.android.material.timepicker.MaterialTimePicker
 import com.google.android.material.timepicker.TimeFormat
 import de.dhbw.mannheim.cwb.R
-import de.dhbw.mannheim.cwb.databinding.MaterialListEntryViewBinding
 import de.dhbw.mannheim.cwb.databinding.TransitFindFragmentBinding
 import de.dhbw.mannheim.cwb.transit.pojo.Trip
 import de.dhbw.mannheim.cwb.transit.pojo.TripData
 import de.dhbw.mannheim.cwb.transit.util.AsyncRoutePlanner
+import de.dhbw.mannheim.cwb.transit.util.TransitTask
 import de.dhbw.mannheim.cwb.util.formatLocalDate
 import de.dhbw.mannheim.cwb.util.formatLocalTime
-import de.dhbw.mannheim.cwb.util.formatTemporalRange
 import de.dhbw.mannheim.cwb.util.toInstant
 import de.dhbw.mannheim.cwb.util.toLocalDate
 import java.time.Instant
@@ -37,7 +36,7 @@ import java.time.ZoneId
 import java.time.temporal.ChronoUnit
 import java.util.*
 import java.util.concurrent.ExecutionException
-import kotlin.concurrent.thread
+import java.util.concurrent.Future
 
 class FindTransitDialog : Fragment() {
 
@@ -77,6 +76,38 @@ class FindTransitDialog : Fragment() {
     private val selectedTrips: MutableLiveData<List<Trip>> get() = transitSearchModel.selectedTrips
     private val tripData: MutableLiveData<TripData?> get() = transitSearchModel.tripData
 
+    // the adapter is kept for the lifetime of the fragment, so its rows are reused by every search
+    private val tripAdapter: TripListAdapter by lazy {
+        TripListAdapter(onSelect = { trip, isChecked ->
+            val wasChecked = selectedTrips.value?.contains(trip) ?: false
+            if (wasChecked && !isChecked) {
+                // deselect trip
+                selectedTrips.value = selectedTrips.value?.minus(trip) ?: emptyList()
+            } else if (!wasChecked && isChecked) {
+                // select trip
+                selectedTrips.value = selectedTrips.value?.plus(trip) ?: listOf(trip)
+            } // else state not changed
+        }, onOpen = { trip ->
+            val transitViewModel: TransitViewModel by activityViewModels()
+
+            transitViewModel.trip.value = trip
+
+            ViewTransitTripDialog().show(
+                parentFragmentManager.beginTransaction().addToBackStack(null), null
+            )
+        })
+    }
+
+    // the currently running search, accessed only on the main thread
+    private var search: Future<TripData>? = null
+
+    // the parameters of the last search, needed to query earlier and later trips
+    private var query: Query? = null
+
+    // the next page of later trips, requested before the user asks for it
+    private var laterPage: TransitTask<TripData>? = null
+    private var earlierPage: TransitTask<TripData>? = null
+
     // ------------------------------------------ //
 
     override fun onCreate(savedInstanceState: Bundle?) {
@@ -85,6 +116,7 @@ class FindTransitDialog : Fragment() {
         date.observe(this, this::updateDate)
         isArrival.observe(this, this::updateIsArrival)
         tripData.observe(this, this::updateTripData)
+        selectedTrips.observe(this) { updateTripData(tripData.value) }
     }
 
     override fun onCreateView(
@@ -96,6 +128,9 @@ class FindTransitDialog : Fragment() {
 
         binding.topAppBar.setNavigationOnClickListener { requireActivity().onBackPressed() }
 
+        binding.content.layoutManager = LinearLayoutManager(requireContext())
+        binding.content.adapter = tripAdapter
+
         binding.topAppBar.menu.findItem(R.id.save).let {
             if (eventId == null) {
                 it.isVisible = false
@@ -103,20 +138,19 @@ class FindTransitDialog : Fragment() {
             } else {
                 it.icon.colorFilter = PorterDuffColorFilter(Color.WHITE, PorterDuff.Mode.SRC_ATOP)
                 it.setOnMenuItemClickListener {
-                    thread {
+                    // the selected trips are written in one transaction on the database lane
+                    val task = AsyncRoutePlanner.saveTripToDatabase(
+                        requireContext(), eventId!!, tripData.value!!,
+                        *selectedTrips.value!!.toTypedArray()
+                    )
+                    task.addCompletionListener {
                         try {
-                            AsyncRoutePlanner.saveTripToDatabase(
-                                requireContext(), eventId!!, tripData.value!!,
-                                *selectedTrips.value!!.toTypedArray()
-                            ).get()
-
+                            task.get()
                             selectedTrips.postValue(null)
                         } catch (e: ExecutionException) {
                             (e.cause ?: e).let {
                                 System.err.println(it::class.qualifiedName + ": " + it.message)
                             }
-                        } catch (e: Exception) {
-                            System.err.println(e::class.qualifiedName + ": " + e.message)
                         }
                     }
                     requireActivity().onBackPressed()
@@ -180,30 +214,61 @@ class FindTransitDialog : Fragment() {
         binding.transitSearchSubmit.setOnClickListener {
             binding.transitSearchSubmit.isEnabled = false
             binding.transitSearchSubmitLoading!!.visibility = View.VISIBLE
-            thread {
-                try {
-                    selectedTrips.postValue(null)
-                    tripData.postValue(
-                        AsyncRoutePlanner.queryJourneyDetails(
-                            requireContext(), binding.transitOrigin.editText!!.text.toString(),
-                            binding.transitDestination.editText!!.text.toString(),
-                            isArrival.value!!,
-                            date.value!!.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
-                        ).get()
-                    )
-                } catch (e: ExecutionException) {
-                    System.err.println(
-                        (e.cause ?: e)::class.qualifiedName + ": " + (e.cause ?: e).message
-                    )
 
-                    Snackbar.make(
-                        binding.root, R.string.error_not_trips_found, Snackbar.LENGTH_SHORT
-                    ).show()
+            selectedTrips.value = null
+            search?.cancel(true)
+            cancelPages()
+
+            val query = Query(
+                binding.transitOrigin.editText!!.text.toString(),
+                binding.transitDestination.editText!!.text.toString(), isArrival.value!!,
+                date.value!!.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+            )
+            this.query = query
+
+            lateinit var task: TransitTask<TripData>
+            task = AsyncRoutePlanner.queryJourneyDetails(
+                requireContext(), query.origin, query.destination, query.isArrival, query.time
+            ) { partial ->
+                // show the trips before all stop names have been resolved
+                binding.root.post { if (search === task) showSearchResult(partial) }
+            }
+            // wait for the result without blocking a thread
+            task.addCompletionListener {
+                binding.root.post { if (search === task) onSearchCompleted(task) }
+            }
+            search = task
+        }
+
+        binding.transitLater.setOnClickListener {
+            val task = laterPage ?: requestPage(later = true) ?: return@setOnClickListener
+            laterPage = task
+            binding.transitLater.isEnabled = false
+            task.addCompletionListener {
+                binding.root.post {
+                    if (laterPage === task) {
+                        laterPage = null
+                        onPageCompleted(task)
+                        // request the next page before the user scrolls to it
+                        laterPage = requestPage(later = true)
+                    }
                 }
+            }
+        }
 
+        binding.transitEarlier.setOnClickListener {
+            val task = earlierPage ?: requestPage(later = false) ?: return@setOnClickListener
+            earlierPage = task
+            binding.transitEarlier.isEnabled = false
+            task.addCompletionListener {
                 binding.root.post {
-                    binding.transitSearchSubmitLoading!!.visibility = View.GONE
-                    binding.transitSearchSubmit.isEnabled = true
+                    if (earlierPage === task) {
+                        earlierPage = null
+                        onPageCompleted(task)
+                        // the prefetched later page does not contain the earlier trips
+                        laterPage?.cancel(true)
+                        laterPage = requestPage(later = true)
+                    }
                 }
             }
         }
@@ -212,12 +277,89 @@ class FindTransitDialog : Fragment() {
 
     override fun onDestroyView() {
         super.onDestroyView()
+        // the user abandoned the search so it should not consume any further resources
+        search?.cancel(true)
+        search = null
+        cancelPages()
         selectedTrips.value = null
         tripData.value = null
     }
 
     // ------------------------------------------ //
 
+    private fun onSearchCompleted(task: Future<TripData>) {
+        search = null
+
+        if (!task.isCancelled) try {
+            showSearchResult(task.get())
+            // request the next page before the user scrolls to it
+            laterPage = requestPage(later = true)
+        } catch (e: ExecutionException) {
+            System.err.println(
+                (e.cause ?: e)::class.qualifiedName + ": " + (e.cause ?: e).message
+            )
+
+            Snackbar.make(
+                binding.root, R.string.error_not_trips_found, Snackbar.LENGTH_SHORT
+            ).show()
+        }
+
+        binding.transitSearchSubmitLoading!!.visibility = View.GONE
+        binding.transitSearchSubmit.isEnabled = true
+    }
+
+    /**
+     * Shows a partial or the complete result of the current search. Every result is a separate
+     * copy with the same order of trips, so the selected trips are carried over by their position.
+     */
+    private fun showSearchResult(next: TripData) {
+        val previous = tripData.value?.trips
+        val trips = next.trips
+        val selected = selectedTrips.value
+
+        if (previous != null && trips != null && previous.size == trips.size && !selected.isNullOrEmpty()) {
+            selectedTrips.value = selected.mapNotNull { trip ->
+                previous.indexOf(trip).takeIf { it >= 0 }?.let { trips[it] }
+            }
+        }
+        tripData.value = next
+    }
+
+    private fun requestPage(later: Boolean): TransitTask<TripData>? {
+        val query = query ?: return null
+        val current = tripData.value ?: return null
+
+        if ((if (later) current.laterContext else current.earlierContext) == null) return null
+
+        return if (later) AsyncRoutePlanner.queryLaterJourneyDetails(
+            requireContext(), query.origin, query.destination, query.isArrival, query.time, current
+        ) else AsyncRoutePlanner.queryEarlierJourneyDetails(
+            requireContext(), query.origin, query.destination, query.isArrival, query.time, current
+        )
+    }
+
+    private fun onPageCompleted(task: Future<TripData>) {
+        if (!task.isCancelled) try {
+            tripData.value = task.get()
+        } catch (e: ExecutionException) {
+            System.err.println(
+                (e.cause ?: e)::class.qualifiedName + ": " + (e.cause ?: e).message
+            )
+        }
+
+        binding.transitLater.isEnabled = true
+        binding.transitEarlier.isEnabled = true
+    }
+
+    private fun cancelPages() {
+        laterPage?.cancel(true)
+        laterPage = null
+        earlierPage?.cancel(true)
+        earlierPage = null
+    }
+
+    // ------------------------------------------ //
+
     private fun updateDate(date: LocalDateTime?) {
         if (date == null) this.date.value = LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES)
         else {
@@ -235,71 +377,18 @@ class FindTransitDialog : Fragment() {
     }
 
     private fun updateTripData(data: TripData?) {
-        data?.trips?.sortedWith(if (isArrival.value == true) Comparator.comparing { trip: Trip ->
-            trip.leglist.legs.last().destination.run { LocalDateTime.parse(date + "T" + time) }
-        }.reversed() else Comparator.comparing { trip: Trip ->
-            trip.leglist.legs.first().origin.run { LocalDateTime.parse(date + "T" + time) }
-        })?.mapNotNull { trip ->
-            val start = trip.leglist.legs.firstOrNull()?.origin?.run {
-                LocalDateTime.parse(date + "T" + time)
-            }
-            val end = trip.leglist.legs.lastOrNull()?.destination?.run {
-                LocalDateTime.parse(date + "T" + time)
-            }
-
-            if (start != null && end != null) {
-                val binding = MaterialListEntryViewBinding.inflate(layoutInflater)
-
-                binding.title.text = formatTemporalRange(start, end)
-                binding.subtitle.text = trip.leglist.legs.mapNotNull { leg ->
-                    leg.name?.trim().takeIf { leg.type == "JNY" && !it.isNullOrBlank() }
-                }.joinToString(" - ")
-
-                binding.icon.visibility = View.GONE
-                binding.primaryAction.visibility = View.VISIBLE
-                binding.primaryAction.isChecked = selectedTrips.value?.contains(trip) == true
-
-                binding.primaryAction.setOnCheckedChangeListener { _, isChecked ->
-                    val wasChecked = selectedTrips.value?.contains(trip) ?: false
-                    if (wasChecked && !isChecked) {
-                        // deselect trip
-                        selectedTrips.value = selectedTrips.value?.minus(trip) ?: emptyList()
-                    } else if (!wasChecked && isChecked) {
-                        // select trip
-                        selectedTrips.value = selectedTrips.value?.plus(trip) ?: listOf(trip)
-                    } // else state not changed
-                }
-
-                binding.secondary.visibility = View.VISIBLE
-                binding.secondaryIcon.setImageDrawable(
-                    ResourcesCompat.getDrawable(
-                        resources, R.drawable.ic_baseline_open_in_new_24, null
-                    )
-                )
-                binding.secondary.setOnClickListener {
-                    val transitViewModel: TransitViewModel by activityViewModels()
-
-                    transitViewModel.trip.value = trip
+        binding.transitEarlier.visibility = if (data?.earlierContext != null) View.VISIBLE else View.GONE
+        binding.transitLater.visibility = if (data?.laterContext != null) View.VISIBLE else View.GONE
 
-                    ViewTransitTripDialog().show(
-                        parentFragmentManager.beginTransaction().addToBackStack(null), null
-                    )
-                }
-
-                binding.root
-            } else null
-        }.let {
-            val content = binding.content
-
-            content.post {
-                content.removeAllViews()
-                it?.forEach(content::addView)
-            }
-        }
+        tripAdapter.submitTrips(data, isArrival.value == true, selectedTrips.value)
     }
 
     // ------------------------------------------ //
 
+    private data class Query(
+        val origin: String, val destination: String, val isArrival: Boolean, val time: Long
+    )
+
     companion object {
 
         const val EXTRA_EVENT_ID = "EXTRA_EVENT_ID"
@@ -0,0 +1,158 @@
+package de.dhbw.mannheim.cwb.view.transit
+
+import android.os.Handler
+import android.os.Looper
+import android.view.LayoutInflater
+import android.view.View
+import android.view.ViewGroup
+import androidx.core.content.res.ResourcesCompat
+import androidx.recyclerview.widget.AsyncDifferConfig
+import androidx.recyclerview.widget.DiffUtil
+import androidx.recyclerview.widget.ListAdapter
+import androidx.recyclerview.widget.RecyclerView
+import de.dhbw.mannheim.cwb.R
+import de.dhbw.mannheim.cwb.databinding.MaterialListEntryViewBinding
+import de.dhbw.mannheim.cwb.transit.pojo.Trip
+import de.dhbw.mannheim.cwb.transit.pojo.TripData
+import de.dhbw.mannheim.cwb.util.formatTemporalRange
+import java.util.concurrent.Executors
+
+/**
+ * Shows the trips of a search. The rows are prepared and diffed on a background thread, so that
+ * only the rows of trips that have changed are bound again when a page or a new search arrives.
+ */
+class TripListAdapter(
+    private val onSelect: (trip: Trip, selected: Boolean) -> Unit,
+    private val onOpen: (trip: Trip) -> Unit
+) : ListAdapter<TripListAdapter.Item, TripListAdapter.ViewHolder>(
+    AsyncDifferConfig.Builder(DIFF).setBackgroundThreadExecutor(executor).build()
+) {
+
+    private val mainThread = Handler(Looper.getMainLooper())
+
+    // incremented for every submitted list, so that outdated lists are dropped
+    private var generation = 0
+
+    /**
+     * Prepares the rows of the trips on a background thread and shows them afterwards. Has to be
+     * called on the main thread.
+     */
+    fun submitTrips(data: TripData?, isArrival: Boolean, selected: List<Trip>?) {
+        val generation = ++generation
+        val trips = data?.trips
+
+        executor.execute {
+            val items = trips?.let { toItems(it, isArrival, selected) }
+            mainThread.post { if (this.generation == generation) submitList(items) }
+        }
+    }
+
+    override fun onCreateViewHolder(parent: ViewGroup, viewType: Int): ViewHolder {
+        val binding = MaterialListEntryViewBinding.inflate(
+            LayoutInflater.from(parent.context), parent, false
+        )
+
+        binding.icon.visibility = View.GONE
+        binding.primaryAction.visibility = View.VISIBLE
+
+        binding.secondary.visibility = View.VISIBLE
+        binding.secondaryIcon.setImageDrawable(
+            ResourcesCompat.getDrawable(
+                parent.resources, R.drawable.ic_baseline_open_in_new_24, null
+            )
+        )
+
+        return ViewHolder(binding)
+    }
+
+    override fun onBindViewHolder(holder: ViewHolder, position: Int) {
+        val item = getItem(position)
+        val binding = holder.binding
+
+        binding.title.text = item.title
+        binding.subtitle.text = item.subtitle
+
+        // the listener is removed, so that setting the state is not reported as selection
+        binding.primaryAction.setOnCheckedChangeListener(null)
+        binding.primaryAction.isChecked = item.selected
+        binding.primaryAction.setOnCheckedChangeListener { _, isChecked ->
+            holder.item()?.let { onSelect(it.trip, isChecked) }
+        }
+
+        binding.secondary.setOnClickListener { holder.item()?.let { onOpen(it.trip) } }
+    }
+
+    private fun ViewHolder.item(): Item? = adapterPosition.takeIf {
+        it != RecyclerView.NO_POSITION
+    }?.let(this@TripListAdapter::getItem)
+
+    // ------------------------------------------ //
+
+    class ViewHolder(val binding: MaterialListEntryViewBinding) :
+        RecyclerView.ViewHolder(binding.root)
+
+    /**
+     * The prepared content of a row
+     *
+     * @param key identifies the trip across searches by its times and lines
+     */
+    data class Item(
+        val trip: Trip, val key: String, val title: String, val subtitle: String,
+        val selected: Boolean
+    )
+
+    companion object {
+
+        // an executor with an daemon thread so that it does not prevent shutdown
+        private val executor =
+            Executors.newSingleThreadExecutor { Thread(it).also { it.isDaemon = true } }
+
+        private val DIFF = object : DiffUtil.ItemCallback<Item>() {
+            override fun areItemsTheSame(oldItem: Item, newItem: Item) = oldItem.key == newItem.key
+
+            // the trip objects of different searches differ, only the shown content is compared
+            override fun areContentsTheSame(oldItem: Item, newItem: Item) =
+                oldItem.title == newItem.title && oldItem.subtitle == newItem.subtitle
+                        && oldItem.selected == newItem.selected
+        }
+
+        private fun toItems(
+            trips: Array<Trip>, isArrival: Boolean, selected: List<Trip>?
+        ): List<Item> {
+            // trips with the same times and lines may still differ in their walks or transfers,
+            // so further occurrences of a key are numbered instead of being dropped
+            val occurrences = HashMap<String, Int>()
+
+            // the stops are compared by their decoded epoch minute
+            return trips.sortedWith(if (isArrival) compareByDescending { trip: Trip ->
+                trip.leglist.legs.last().destination.epochMinute
+            } else compareBy { trip: Trip ->
+                trip.leglist.legs.first().origin.epochMinute
+            }).mapNotNull { trip ->
+                val origin = trip.leglist.legs.firstOrNull()?.origin
+                val destination = trip.leglist.legs.lastOrNull()?.destination
+
+                val start = origin?.toLocalDateTime()
+                val end = destination?.toLocalDateTime()
+
+                if (start != null && end != null) {
+                    val lines = trip.leglist.legs.mapNotNull { leg ->
+                        leg.name?.trim().takeIf { leg.type == "JNY" && !it.isNullOrBlank() }
+                    }
+
+                    val key = "${origin.epochMinute}>${destination.epochMinute}|$lines"
+                    val occurrence = occurrences[key] ?: 0
+                    occurrences[key] = occurrence + 1
+
+                    Item(
+                        trip, if (occurrence == 0) key else "$key#$occurrence",
+                        formatTemporalRange(start, end), lines.joinToString(" - "),
+                        selected?.contains(trip) == true
+                    )
+                } else null
+            }
+        }
+
+    }
+
+}
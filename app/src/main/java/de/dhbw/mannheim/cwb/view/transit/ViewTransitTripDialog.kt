@@ -1,12 +1,13 @@
 package de.dhbw.mannheim.cwb.view.transit
 
-import android.location.Geocoder
 import android.os.Bundle
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
 import android.view.WindowManager
+import android.widget.TextView
 import androidx.core.content.res.ResourcesCompat
+import androidx.core.os.TraceCompat
 import androidx.fragment.app.DialogFragment
 import androidx.fragment.app.activityViewModels
 import de.dhbw.mannheim.cwb.R
@@ -16,11 +17,13 @@ import de.dhbw.mannheim.cwb.databinding.TransitTripLegViewBinding
 import de.dhbw.mannheim.cwb.databinding.TransitTripViewFragmentBinding
 import de.dhbw.mannheim.cwb.transit.pojo.Stop
 import de.dhbw.mannheim.cwb.transit.pojo.Trip
+import de.dhbw.mannheim.cwb.transit.util.LocationParser
+import de.dhbw.mannheim.cwb.transit.util.TransitExecutor
+import de.dhbw.mannheim.cwb.transit.util.TransitTask
 import de.dhbw.mannheim.cwb.util.formatLocalDate
 import de.dhbw.mannheim.cwb.util.formatLocalTime
 import java.time.LocalDate
-import java.time.LocalTime
-import kotlin.concurrent.thread
+import java.util.concurrent.ExecutionException
 
 class ViewTransitTripDialog : DialogFragment() {
 
@@ -30,12 +33,25 @@ class ViewTransitTripDialog : DialogFragment() {
         TransitTripViewFragmentBinding.inflate(layoutInflater)
     }
 
+    // the stop names that are resolved after the legs have been bound, accessed on the main thread
+    private val pendingNames: MutableMap<Pair<Double, Double>, MutableList<TextView>> =
+        mutableMapOf()
+    private val lookups: MutableList<TransitTask<String>> = mutableListOf()
+
+    // identifies the lookups of the trip that is currently shown
+    private var generation = 0
+
     override fun onCreate(savedInstanceState: Bundle?) {
         super.onCreate(savedInstanceState)
 
         viewModel.trip.observe(this, this::updateTrip)
     }
 
+    override fun onDestroyView() {
+        super.onDestroyView()
+        cancelLookups()
+    }
+
     override fun onCreateView(
         inflater: LayoutInflater, container: ViewGroup?, savedInstanceState: Bundle?
     ) = binding.root
@@ -53,81 +69,145 @@ class ViewTransitTripDialog : DialogFragment() {
     // ----------------------------------- //
 
     private fun updateTrip(trip: Trip?) {
+        cancelLookups()
+
         if (trip == null) requireActivity().onBackPressed()
         else {
-            binding.content.removeAllViews()
-
-            thread {
-                val geocoder = Geocoder(requireContext())
-                fun TransitTripLegStopViewBinding.apply(stop: Stop) {
-                    stopTime.text = formatLocalTime(LocalTime.parse(stop.time))
-
-                    stopName.text = when (stop.type) {
-                        "ST", "POI" -> null
-                        else -> geocoder.getFromLocation(stop.lat, stop.lon, 1).singleOrNull()
-                            ?.let {
-                                listOfNotNull(
-                                    it.featureName, it.locality, it.countryName
-                                ).joinToString(", ")
-                            }
-                    } ?: stop.name
-
-                    if (stop.track != null) stop.track.let { track ->
-                        stopInfo.text = getString(R.string.trip_stop_info_track, track)
-                    } else stopInfo.visibility = View.GONE
+            TraceCompat.beginSection("ViewTransitTripDialog.bindLegs")
+            try {
+                binding.content.removeAllViews()
+                bindLegs(trip)
+            } finally {
+                TraceCompat.endSection()
+            }
+
+            resolveStopNames()
+        }
+    }
+
+    /**
+     * Binds all legs with the names provided by the RMV API. Stops that are only addresses are
+     * collected, so that nicer names can be resolved afterwards.
+     */
+    private fun bindLegs(trip: Trip) {
+        var date: LocalDate? = null
+        trip.leglist.legs.forEach {
+            it.origin.toLocalDateTime()?.toLocalDate()?.let {
+                if (date == null || date!! > it) {
+                    date = it
+
+                    val binding = MaterialListEntryViewBinding.inflate(
+                        layoutInflater, binding.content, false
+                    )
+                    binding.title.text = formatLocalDate(it)
+                    binding.subtitle.visibility = View.GONE
+                    binding.primary.visibility = View.GONE
+
+                    this.binding.content.addView(binding.root)
                 }
+            }
 
-                val list = mutableListOf<View>()
-                var date: LocalDate? = null
-                trip.leglist.legs.forEach {
-                    LocalDate.parse(it.origin.date).let {
-                        if (date == null || date!! > it) {
-                            date = it
-
-                            val binding = MaterialListEntryViewBinding.inflate(
-                                layoutInflater, binding.content, false
-                            )
-                            binding.title.text = formatLocalDate(it)
-                            binding.subtitle.visibility = View.GONE
-                            binding.primary.visibility = View.GONE
-
-                            list.add(binding.root)
-                        }
-                    }
+            val binding = TransitTripLegViewBinding.inflate(layoutInflater, binding.content, false)
 
-                    val binding =
-                        TransitTripLegViewBinding.inflate(layoutInflater, binding.content, false)
-
-                    binding.transitOrigin.apply(it.origin)
-
-                    val tripLegData = binding.tripLegData
-
-                    when (it.type) {
-                        "JNY" -> R.drawable.ic_baseline_train_24
-                        "WALK" -> R.drawable.ic_baseline_directions_walk_24
-                        "BIKE" -> R.drawable.ic_baseline_directions_bike_24
-                        "KISS" -> R.drawable.ic_baseline_directions_car_24
-                        "TAXI", "TETA" -> R.drawable.ic_baseline_local_taxi_24
-                        else -> null
-                    }?.let {
-                        tripLegData.icon.setImageDrawable(
-                            ResourcesCompat.getDrawable(resources, it, null)
-                        )
-                        tripLegData.icon.visibility = View.VISIBLE
-                    }
+            bindStop(binding.transitOrigin, it.origin)
+
+            val tripLegData = binding.tripLegData
+
+            when (it.type) {
+                "JNY" -> R.drawable.ic_baseline_train_24
+                "WALK" -> R.drawable.ic_baseline_directions_walk_24
+                "BIKE" -> R.drawable.ic_baseline_directions_bike_24
+                "KISS" -> R.drawable.ic_baseline_directions_car_24
+                "TAXI", "TETA" -> R.drawable.ic_baseline_local_taxi_24
+                else -> null
+            }?.let {
+                tripLegData.icon.setImageDrawable(
+                    ResourcesCompat.getDrawable(resources, it, null)
+                )
+                tripLegData.icon.visibility = View.VISIBLE
+            }
+
+            tripLegData.title.visibility = View.GONE
+            tripLegData.subtitle.text = it.name
 
-                    tripLegData.title.visibility = View.GONE
-                    tripLegData.subtitle.text = it.name
+            bindStop(binding.transitDestination, it.destination)
 
-                    binding.transitDestination.apply(it.destination)
+            this.binding.content.addView(binding.root)
+        }
+    }
+
+    private fun bindStop(binding: TransitTripLegStopViewBinding, stop: Stop) {
+        binding.stopTime.text = stop.toLocalDateTime()?.let(::formatLocalTime) ?: stop.time
+        binding.stopName.text = stop.name
+
+        when (stop.type) {
+            "ST", "POI" -> Unit
+            // stops at the same coordinates share a single lookup
+            else -> pendingNames.getOrPut(stop.lat to stop.lon) { mutableListOf() }
+                .add(binding.stopName)
+        }
 
-                    list.add(binding.root)
+        if (stop.track != null) stop.track.let { track ->
+            binding.stopInfo.text = getString(R.string.trip_stop_info_track, track)
+        } else binding.stopInfo.visibility = View.GONE
+    }
+
+    /**
+     * Resolves the names of the collected stops concurrently through the geocode cache and
+     * updates each stop as soon as its name is known
+     */
+    private fun resolveStopNames() {
+        if (pendingNames.isEmpty()) return
+
+        val context = requireContext().applicationContext
+        val cookie = ++generation
+        var remaining = pendingNames.size
+        TraceCompat.beginAsyncSection(TRACE_RESOLVE_NAMES, cookie)
+
+        pendingNames.forEach { (coordinates, views) ->
+            val (latitude, longitude) = coordinates
+            val task = TransitExecutor.GEOCODING.submit<String> {
+                LocationParser.getLocationFromCoordinates(context, latitude, longitude)?.let {
+                    listOfNotNull(it.featureName, it.locality, it.countryName).joinToString(", ")
                 }
+            }
+
+            task.addCompletionListener {
+                binding.root.post {
+                    // the lookup belongs to a trip that is not shown anymore
+                    if (generation != cookie) return@post
 
-                binding.content.post { list.forEach(binding.content::addView) }
+                    // the stops of a rejected lookup keep the names of the RMV API
+                    if (!task.isCancelled && !task.isRejected) try {
+                        task.get()?.let { name -> views.forEach { it.text = name } }
+                    } catch (e: ExecutionException) {
+                        (e.cause ?: e).printStackTrace()
+                    }
+
+                    if (--remaining == 0) {
+                        lookups.clear()
+                        TraceCompat.endAsyncSection(TRACE_RESOLVE_NAMES, cookie)
+                    }
+                }
             }
+            lookups.add(task)
         }
+        pendingNames.clear()
+
+        if (remaining == 0) TraceCompat.endAsyncSection(TRACE_RESOLVE_NAMES, cookie)
+    }
+
+    private fun cancelLookups() {
+        if (lookups.isNotEmpty()) TraceCompat.endAsyncSection(TRACE_RESOLVE_NAMES, generation)
+        // completion listeners of cancelled lookups are ignored
+        generation++
+        lookups.forEach { it.cancel(true) }
+        lookups.clear()
+        pendingNames.clear()
+    }
 
+    companion object {
+        private const val TRACE_RESOLVE_NAMES = "ViewTransitTripDialog.resolveStopNames"
     }
 
 }
\ No newline at end of file
@@ -2,13 +2,15 @@ package de.dhbw.mannheim.cwb.weather
 
 import android.content.res.Resources
 import androidx.annotation.StringRes
-import com.fasterxml.jackson.databind.ObjectMapper
 import de.dhbw.mannheim.cwb.R
+import de.dhbw.mannheim.cwb.util.JsonMapping
 import de.dhbw.mannheim.cwb.weather.model.OneCallWeather
 import java.net.URL
 
 open class OWM(
-    apiKey: String, var language: Language = Language.ENGLISH, var unit: Unit = Unit.STANDARD
+    apiKey: String, var language: Language = Language.ENGLISH, var unit: Unit = Unit.STANDARD,
+    private val cache: WeatherCache? = null,
+    private val maxAgeMillis: Long = WeatherCache.DEFAULT_MAX_AGE_MILLIS
 ) {
 
     var apiKey: String = apiKey
@@ -22,12 +24,33 @@ open class OWM(
     fun oneCallWeather(
         latitude: Double, longitude: Double, vararg exclude: OneCallWeatherData
     ): OneCallWeather {
-        return ObjectMapper().readValue(
-            URL("https://api.openweathermap.org/data/2.5/onecall?" + "lat=$latitude&lon=$longitude&" + "appid=$apiKey&units=${unit.value}&lang=${language.value}" + if (exclude.isNotEmpty()) "&exclude=${
-                exclude.joinToString(",") { it.value }
-            }" else ""), OneCallWeather::class.java)
+        if (cache == null) return JsonMapping.ONE_CALL_WEATHER_READER.readValue(
+            oneCallUrl(latitude, longitude, exclude)
+        )
+
+        // the coordinates are rounded, so that the cached response matches the request
+        return cache.get(
+            WeatherCache.key(latitude, longitude, unit, language, exclude), oneCallUrl(
+                WeatherCache.round(latitude), WeatherCache.round(longitude), exclude
+            ), maxAgeMillis
+        )
     }
 
+    /**
+     * Returns the last response for the location without querying the API
+     *
+     * @return the cached weather or null if there is no cache or no response for the location
+     */
+    fun cachedOneCallWeather(
+        latitude: Double, longitude: Double, vararg exclude: OneCallWeatherData
+    ): OneCallWeather? = cache?.peek(WeatherCache.key(latitude, longitude, unit, language, exclude))
+
+    private fun oneCallUrl(
+        latitude: Double, longitude: Double, exclude: Array<out OneCallWeatherData>
+    ) = URL("https://api.openweathermap.org/data/2.5/onecall?" + "lat=$latitude&lon=$longitude&" + "appid=$apiKey&units=${unit.value}&lang=${language.value}" + if (exclude.isNotEmpty()) "&exclude=${
+        exclude.joinToString(",") { it.value }
+    }" else "")
+
     enum class Unit(val value: String, @StringRes private val displayRes: Int? = null) {
         IMPERIAL("imperial", R.string.weather_units_imperial),
         METRIC("metric", R.string.weather_units_metric), STANDARD("standard");
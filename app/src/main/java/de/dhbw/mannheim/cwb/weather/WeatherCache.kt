@@ -0,0 +1,236 @@
+package de.dhbw.mannheim.cwb.weather
+
+import android.content.Context
+import de.dhbw.mannheim.cwb.util.JsonMapping
+import de.dhbw.mannheim.cwb.weather.model.OneCallWeather
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.net.HttpURLConnection
+import java.net.URL
+import java.util.*
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+import kotlin.math.roundToLong
+
+/**
+ * Cache for the responses of the One Call API. The last good response of every location is kept
+ * in memory and as gzipped snapshot on disk, so that it can be shown immediately after a cold
+ * start. Responses are fresh for one refresh interval; afterwards they are revalidated with a
+ * conditional request (ETag / Last-Modified).
+ */
+class WeatherCache private constructor(private val directory: File) {
+
+    private val memory = object : LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Entry>?) =
+            size > MEMORY_CAPACITY
+    }
+
+    private val hitCount = AtomicLong()
+    private val requestCount = AtomicLong()
+    private val notModifiedCount = AtomicLong()
+
+    /**
+     * Returns the last good response without querying the API
+     *
+     * @param key the key of the request, see [key]
+     * @return the response or null if the location has never been loaded
+     */
+    fun peek(key: String): OneCallWeather? = entry(key)?.weather
+
+    /**
+     * @param key the key of the request, see [key]
+     * @return the time in milliseconds at which the last response has been received or
+     * revalidated, null if the location has never been loaded
+     */
+    fun fetchedAt(key: String): Long? = entry(key)?.fetchedAt
+
+    /**
+     * Returns a fresh response. Cached responses younger than the maximal age are returned
+     * directly, older ones are revalidated.
+     *
+     * @param key the key of the request, see [key]
+     * @param url the url of the request
+     * @param maxAgeMillis the age up to which a cached response is returned without a request
+     * @throws IOException if the API can't be reached or answers with an error
+     */
+    fun get(key: String, url: URL, maxAgeMillis: Long = DEFAULT_MAX_AGE_MILLIS): OneCallWeather {
+        val cached = entry(key)
+        val now = System.currentTimeMillis()
+        if (cached != null && now - cached.fetchedAt < maxAgeMillis) {
+            hitCount.incrementAndGet()
+            return cached.weather
+        }
+
+        requestCount.incrementAndGet()
+        val connection = url.openConnection() as HttpURLConnection
+        try {
+            connection.connectTimeout = TIMEOUT_MILLIS
+            connection.readTimeout = TIMEOUT_MILLIS
+            cached?.etag?.let { connection.setRequestProperty("If-None-Match", it) }
+            cached?.lastModified?.let { connection.setRequestProperty("If-Modified-Since", it) }
+
+            return when (val code = connection.responseCode) {
+                HttpURLConnection.HTTP_NOT_MODIFIED -> {
+                    if (cached == null) throw IOException("Unexpected response $code")
+                    notModifiedCount.incrementAndGet()
+                    store(key, cached.revalidated(now))
+                    cached.weather
+                }
+                HttpURLConnection.HTTP_OK -> {
+                    val body = connection.inputStream.use { it.readBytes() }
+                    val entry = Entry(
+                        JsonMapping.ONE_CALL_WEATHER_READER.readValue(body), body,
+                        connection.getHeaderField("ETag"),
+                        connection.getHeaderField("Last-Modified"), now
+                    )
+                    store(key, entry)
+                    entry.weather
+                }
+                else -> throw IOException("Unexpected response $code: ${connection.responseMessage}")
+            }
+        } finally {
+            connection.disconnect()
+        }
+    }
+
+    /**
+     * @return the number of responses that have been returned without a request
+     */
+    fun getHitCount(): Long = hitCount.get()
+
+    /**
+     * @return the number of requests that have been sent to the API
+     */
+    fun getRequestCount(): Long = requestCount.get()
+
+    /**
+     * @return the number of requests that have been answered with "not modified"
+     */
+    fun getNotModifiedCount(): Long = notModifiedCount.get()
+
+    // ------------------------------------------------- //
+
+    private fun entry(key: String): Entry? = synchronized(memory) { memory[key] }
+        ?: read(key)?.also { synchronized(memory) { memory[key] = it } }
+
+    private fun store(key: String, entry: Entry) {
+        synchronized(memory) { memory[key] = entry }
+        try {
+            // snapshots may be written by several fetch threads of the repository
+            synchronized(directory) { write(key, entry) }
+        } catch (e: IOException) {
+            // the response is still cached in memory
+            e.printStackTrace()
+        }
+    }
+
+    private fun file(key: String) = File(directory, key.replace(Regex("[^A-Za-z0-9._-]"), "_"))
+
+    private fun read(key: String): Entry? {
+        val file = file(key)
+        if (!file.exists()) return null
+
+        return try {
+            DataInputStream(FileInputStream(file).buffered()).use { input ->
+                if (input.readInt() != SNAPSHOT_VERSION) return null
+
+                val fetchedAt = input.readLong()
+                val etag = input.readUTF().takeIf { it.isNotEmpty() }
+                val lastModified = input.readUTF().takeIf { it.isNotEmpty() }
+                val body = GZIPInputStream(input).use { it.readBytes() }
+
+                Entry(
+                    JsonMapping.ONE_CALL_WEATHER_READER.readValue(body), body, etag, lastModified,
+                    fetchedAt
+                )
+            }
+        } catch (e: IOException) {
+            // a damaged snapshot is replaced by the next response
+            e.printStackTrace()
+            null
+        }
+    }
+
+    private fun write(key: String, entry: Entry) {
+        if (!directory.exists() && !directory.mkdirs()) throw IOException("Could not create $directory")
+
+        val compressed = ByteArrayOutputStream().also { bytes ->
+            GZIPOutputStream(bytes).use { it.write(entry.body) }
+        }.toByteArray()
+
+        // the snapshot is replaced atomically, so that a crash does not leave a partial file
+        val file = file(key)
+        val temp = File(file.path + ".tmp")
+        DataOutputStream(FileOutputStream(temp).buffered()).use { output ->
+            output.writeInt(SNAPSHOT_VERSION)
+            output.writeLong(entry.fetchedAt)
+            output.writeUTF(entry.etag ?: "")
+            output.writeUTF(entry.lastModified ?: "")
+            output.write(compressed)
+        }
+        if (!temp.renameTo(file)) throw IOException("Could not replace $file")
+    }
+
+    private class Entry(
+        val weather: OneCallWeather, val body: ByteArray, val etag: String?,
+        val lastModified: String?, val fetchedAt: Long
+    ) {
+        fun revalidated(time: Long) = Entry(weather, body, etag, lastModified, time)
+    }
+
+    companion object {
+
+        /**
+         * the age in milliseconds up to which a cached response is returned without a request
+         */
+        @JvmField
+        val DEFAULT_MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(15)
+
+        private const val MEMORY_CAPACITY = 16
+        private const val SNAPSHOT_VERSION = 1
+        private const val TIMEOUT_MILLIS = 15_000
+
+        // about 1 km, the forecast does not differ within this distance
+        private const val COORDINATE_PRECISION = 1e2
+
+        @Volatile
+        private var instance: WeatherCache? = null
+
+        /**
+         * @return the process wide cache
+         */
+        @JvmStatic
+        fun getInstance(context: Context): WeatherCache = instance ?: synchronized(this) {
+            instance ?: WeatherCache(File(context.applicationContext.cacheDir, "weather"))
+                .also { instance = it }
+        }
+
+        /**
+         * Rounds a coordinate to the precision of the cache
+         */
+        @JvmStatic
+        fun round(coordinate: Double) =
+            (coordinate * COORDINATE_PRECISION).roundToLong() / COORDINATE_PRECISION
+
+        /**
+         * Creates the key of a request
+         */
+        @JvmStatic
+        fun key(
+            latitude: Double, longitude: Double, unit: OWM.Unit, language: OWM.Language,
+            exclude: Array<out OWM.OneCallWeatherData>
+        ) = String.format(
+            Locale.ROOT, "%.2f,%.2f:%s:%s:%s", round(latitude), round(longitude), unit.value,
+            language.value, exclude.map { it.value }.sorted().joinToString(",")
+        )
+
+    }
+
+}
@@ -0,0 +1,415 @@
+package de.dhbw.mannheim.cwb.weather
+
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.net.ConnectivityManager
+import android.util.Log
+import androidx.lifecycle.LiveData
+import androidx.lifecycle.MediatorLiveData
+import de.dhbw.mannheim.cwb.BuildConfig
+import de.dhbw.mannheim.cwb.weather.model.OneCallWeather
+import java.time.LocalDate
+import java.time.temporal.ChronoUnit
+import java.util.*
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.FutureTask
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Process wide source of the One Call weather. Every location is refreshed by a single timer
+ * that is shared by all screens showing it, no matter how many activities observe it. Concurrent
+ * fetches of the same location are merged into one request.
+ *
+ * The refresh interval of a location is derived from the [Horizon] of the weather its
+ * subscribers show: the current weather is refreshed often, a forecast days ahead rarely. Refreshes
+ * are aligned to a common grid so that the fetches of several locations are sent together, failed
+ * fetches are retried with an exponential backoff and no fetches are made while the device is
+ * offline.
+ */
+class WeatherRepository private constructor(context: Context) {
+
+    private val cache = WeatherCache.getInstance(context)
+    private val connectivity =
+        context.getSystemService(Context.CONNECTIVITY_SERVICE) as ConnectivityManager
+
+    // one timer thread for all locations, the requests themselves run on the fetch threads
+    private val scheduler = ScheduledThreadPoolExecutor(1) { Thread(it).also { it.isDaemon = true } }
+    private val fetchExecutor =
+        Executors.newFixedThreadPool(FETCH_THREADS) { Thread(it).also { it.isDaemon = true } }
+
+    private val locations: MutableMap<String, LocationWeather> = HashMap()
+    private val inFlight: MutableMap<String, FutureTask<OneCallWeather>> = HashMap()
+
+    private val fetchTimes: Deque<Long> = ArrayDeque()
+    private val fetchCount = AtomicLong()
+    private val coalescedCount = AtomicLong()
+    private val failureCount = AtomicLong()
+    private val offlineCount = AtomicLong()
+
+    init {
+        // the receiver lives as long as the process, like the repository itself
+        @Suppress("DEPRECATION") context.registerReceiver(object : BroadcastReceiver() {
+            override fun onReceive(context: Context, intent: Intent) {
+                // refreshes that have been skipped while offline are made up for
+                if (isOnline()) synchronized(locations) { locations.values.toList() }.forEach {
+                    it.restart()
+                }
+            }
+        }, IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION))
+
+        // the counters are only read while debugging, e.g. to check the effect of the alignment
+        if (BuildConfig.DEBUG) scheduler.scheduleAtFixedRate({
+            Log.d(
+                TAG, "fetches: ${getFetchCount()} (${getFetchesInLastHour()} in the last hour), " +
+                        "requests: ${getRequestCount()}, coalesced: ${getCoalescedCount()}, " +
+                        "failures: ${getFailureCount()}, offline: ${getOfflineCount()}"
+            )
+        }, HOUR_MILLIS, HOUR_MILLIS, TimeUnit.MILLISECONDS)
+    }
+
+    /**
+     * Returns the weather of a location. The weather is refreshed while the returned data has
+     * active observers; the last known weather is shown until the first refresh has finished.
+     * Has to be called on the main thread.
+     *
+     * @param horizon the part of the weather that is shown, determines the refresh interval
+     */
+    fun observe(
+        latitude: Double, longitude: Double, unit: OWM.Unit, language: OWM.Language,
+        horizon: Horizon
+    ): LiveData<OneCallWeather> {
+        val key = WeatherCache.key(latitude, longitude, unit, language, emptyArray())
+        val location = synchronized(locations) {
+            locations.getOrPut(key) {
+                LocationWeather(
+                    key, WeatherCache.round(latitude), WeatherCache.round(longitude), unit,
+                    language
+                )
+            }
+        }
+        return Subscriber(location, horizon)
+    }
+
+    /**
+     * @return the number of fetches that have been made by the repository
+     */
+    fun getFetchCount(): Long = fetchCount.get()
+
+    /**
+     * @return the number of fetches that have been merged into a fetch already running
+     */
+    fun getCoalescedCount(): Long = coalescedCount.get()
+
+    /**
+     * @return the number of fetches that have failed
+     */
+    fun getFailureCount(): Long = failureCount.get()
+
+    /**
+     * @return the number of refreshes that have been postponed because the device was offline
+     */
+    fun getOfflineCount(): Long = offlineCount.get()
+
+    /**
+     * @return the number of fetches that have been made by the repository within the last hour
+     */
+    fun getFetchesInLastHour(): Int = synchronized(fetchTimes) {
+        prune(System.currentTimeMillis())
+        fetchTimes.size
+    }
+
+    /**
+     * @return the number of requests that have actually been sent to the API, fetches of
+     * responses that are still fresh are answered by the cache
+     */
+    fun getRequestCount(): Long = cache.getRequestCount()
+
+    // ------------------------------------------------- //
+
+    private fun isOnline(): Boolean {
+        @Suppress("DEPRECATION") return connectivity.activeNetworkInfo?.isConnected == true
+    }
+
+    private fun prune(now: Long) {
+        while (fetchTimes.peekFirst()?.let { now - it >= HOUR_MILLIS } == true) fetchTimes.pollFirst()
+    }
+
+    /**
+     * Fetches the weather of a location on the calling thread. If the location is already being
+     * fetched, the running request is awaited instead.
+     */
+    private fun fetch(location: LocationWeather, interval: Long): OneCallWeather {
+        val (task, owner) = synchronized(inFlight) {
+            inFlight[location.key]?.let {
+                coalescedCount.incrementAndGet()
+                it to false
+            } ?: FutureTask<OneCallWeather> {
+                // a response of the last refresh that ran a bit early is revalidated anyway
+                OWM(
+                    BuildConfig.OWM_API_KEY, location.language, location.unit, cache,
+                    interval - ALIGNMENT_MILLIS
+                ).oneCallWeather(location.latitude, location.longitude)
+            }.also { inFlight[location.key] = it } to true
+        }
+
+        if (owner) {
+            val now = System.currentTimeMillis()
+            fetchCount.incrementAndGet()
+            synchronized(fetchTimes) {
+                fetchTimes.addLast(now)
+                prune(now)
+            }
+
+            try {
+                task.run()
+            } finally {
+                synchronized(inFlight) { inFlight.remove(location.key) }
+            }
+        }
+
+        return try {
+            task.get()
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+    }
+
+    /**
+     * Rounds a time up to the grid of the refresh interval, so that the refreshes of several
+     * locations fall on the same moments
+     */
+    private fun align(time: Long, interval: Long): Long {
+        val slot = (interval / 5).coerceIn(1, ALIGNMENT_MILLIS)
+        return (time + slot - 1) / slot * slot
+    }
+
+    /**
+     * The weather of a single subscriber, registers its horizon at the location while active
+     */
+    private inner class Subscriber(
+        private var location: LocationWeather, private val horizon: Horizon
+    ) : MediatorLiveData<OneCallWeather>() {
+
+        init {
+            location.value?.let { value = it }
+            addSource(location) { value = it }
+        }
+
+        override fun onActive() {
+            // the location is dropped from the map once it has no observers left, a later
+            // subscriber of the same key may have created a new one that all have to share
+            val current = synchronized(locations) { locations.getOrPut(location.key) { location } }
+            if (current !== location) {
+                removeSource(location)
+                location = current
+                addSource(current) { value = it }
+            }
+
+            super.onActive()
+            location.attach(horizon)
+        }
+
+        override fun onInactive() {
+            super.onInactive()
+            location.detach(horizon)
+        }
+
+    }
+
+    private inner class LocationWeather(
+        val key: String, val latitude: Double, val longitude: Double, val unit: OWM.Unit,
+        val language: OWM.Language
+    ) : LiveData<OneCallWeather>() {
+
+        // guarded by this; incremented on every restart, so that an old chain stops
+        private var generation = 0
+        private var timer: ScheduledFuture<*>? = null
+        private val horizons: MutableList<Horizon> = ArrayList()
+
+        // guarded by this; consecutive failed fetches and the time of the next retry
+        private var failures = 0
+        private var retryAt = 0L
+
+        private val interval: Long
+            get() = synchronized(this) {
+                TimeUnit.MINUTES.toMillis(
+                    (horizons.minOfOrNull { it.intervalMinutes }
+                        ?: Horizon.CURRENT.intervalMinutes)
+                )
+            }
+
+        fun attach(horizon: Horizon) {
+            synchronized(this) { horizons += horizon }
+            restart()
+        }
+
+        fun detach(horizon: Horizon) {
+            synchronized(this) { horizons -= horizon }
+            restart()
+        }
+
+        override fun onActive() {
+            super.onActive()
+            synchronized(locations) { locations.getOrPut(key) { this } }
+            restart()
+        }
+
+        override fun onInactive() {
+            super.onInactive()
+            synchronized(this) {
+                generation++
+                timer?.cancel(false)
+                timer = null
+            }
+
+            // the data is created again by the next observer
+            synchronized(locations) { if (locations[key] === this) locations.remove(key) }
+        }
+
+        /**
+         * Plans the next refresh again, e.g. because the shown horizons have changed
+         */
+        fun restart() {
+            if (!hasActiveObservers()) return
+
+            val generation = synchronized(this) {
+                timer?.cancel(false)
+                ++generation
+            }
+            schedule(generation, 0) { resume(generation) }
+        }
+
+        /**
+         * Shows the last known weather and plans the next refresh by the age of the last fetch
+         */
+        private fun resume(generation: Int) {
+            if (value == null) cache.peek(key)?.let(this::postValue)
+
+            val now = System.currentTimeMillis()
+            val interval = interval
+            val fetchedAt = cache.fetchedAt(key)
+            val due = maxOf(
+                if (fetchedAt == null) now else align(fetchedAt + interval, interval),
+                synchronized(this) { retryAt }
+            )
+
+            schedule(generation, (due - now).coerceAtLeast(0)) {
+                if (isOnline()) fetchExecutor.execute { refresh(generation, interval) }
+                // the chain is restarted by the connectivity receiver
+                else offlineCount.incrementAndGet()
+            }
+        }
+
+        private fun refresh(generation: Int, interval: Long) {
+            try {
+                postValue(fetch(this, interval))
+                synchronized(this) {
+                    failures = 0
+                    retryAt = 0
+                }
+            } catch (e: Exception) {
+                // don't throw the exception so that the weather update can be tried again later
+                e.printStackTrace()
+                failureCount.incrementAndGet()
+
+                synchronized(this) {
+                    failures++
+                    retryAt = System.currentTimeMillis() + (RETRY_MILLIS shl (failures - 1)
+                        .coerceAtMost(MAX_RETRY_SHIFT)).coerceAtMost(interval)
+                }
+            }
+
+            resume(generation)
+        }
+
+        private fun schedule(generation: Int, delay: Long, action: () -> Unit) =
+            synchronized(this) {
+                if (this.generation == generation) {
+                    timer = scheduler.schedule(Runnable(action), delay, TimeUnit.MILLISECONDS)
+                }
+            }
+
+    }
+
+    /**
+     * The part of the weather that is shown by a subscriber
+     *
+     * @param intervalMinutes the interval in which the weather is refreshed while shown
+     */
+    enum class Horizon(val intervalMinutes: Long) {
+        /** the precipitation of the current hour */
+        MINUTELY(5),
+
+        /** the current weather */
+        CURRENT(15),
+
+        /** the hourly forecast of today */
+        HOURLY(30),
+
+        /** the daily forecast of tomorrow */
+        DAILY(120),
+
+        /** the daily forecast of the days after tomorrow */
+        DISTANT(360);
+
+        companion object {
+
+            /**
+             * @param date the shown date
+             * @param hourly whether the hourly forecast of today is shown instead of the current
+             * weather
+             * @param minutely whether the precipitation of the current hour is shown as well, takes
+             * precedence over [hourly]
+             * @return the horizon of the weather of a date
+             */
+            @JvmStatic
+            @JvmOverloads
+            fun of(date: LocalDate, hourly: Boolean = false, minutely: Boolean = false): Horizon =
+                when (ChronoUnit.DAYS.between(LocalDate.now(), date)) {
+                    in Long.MIN_VALUE..0L -> when {
+                        minutely -> MINUTELY
+                        hourly -> HOURLY
+                        else -> CURRENT
+                    }
+                    1L -> DAILY
+                    else -> DISTANT
+                }
+
+        }
+    }
+
+    companion object {
+
+        private const val TAG = "WeatherRepository"
+
+        private const val FETCH_THREADS = 2
+
+        // the grid on which the refreshes of all locations are aligned
+        private val ALIGNMENT_MILLIS = TimeUnit.MINUTES.toMillis(1)
+
+        // the first retry after a failure, doubled for every further failure
+        private val RETRY_MILLIS = TimeUnit.SECONDS.toMillis(30)
+        private const val MAX_RETRY_SHIFT = 10
+
+        private val HOUR_MILLIS = TimeUnit.HOURS.toMillis(1)
+
+        @Volatile
+        private var instance: WeatherRepository? = null
+
+        /**
+         * @return the process wide repository
+         */
+        @JvmStatic
+        fun getInstance(context: Context): WeatherRepository = instance ?: synchronized(this) {
+            instance ?: WeatherRepository(context.applicationContext).also { instance = it }
+        }
+
+    }
+
+}
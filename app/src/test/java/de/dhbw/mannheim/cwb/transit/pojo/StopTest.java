@@ -0,0 +1,66 @@
+package de.dhbw.mannheim.cwb.transit.pojo;
+
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class StopTest {
+
+    @Test
+    public void decodesDateAndTime() {
+        Stop stop = createStop("2024-10-01", "08:02:00");
+
+        LocalDateTime expected = LocalDateTime.of(2024, 10, 1, 8, 2);
+        assertEquals(TimeUnit.SECONDS.toMinutes(expected.atZone(ZoneId.systemDefault()).toEpochSecond()), stop.getEpochMinute());
+        assertEquals(TimeUnit.MINUTES.toMillis(stop.getEpochMinute()), stop.getEpochMillis());
+        assertEquals(expected, stop.toLocalDateTime());
+    }
+
+    @Test
+    public void timeWithoutSecondsIsDecoded() {
+        assertEquals(createStop("2024-10-01", "23:59:00").getEpochMinute(), createStop("2024-10-01", "23:59").getEpochMinute());
+    }
+
+    @Test
+    public void followsTheLastSetter() {
+        Stop stop = createStop("2024-10-01", "08:02:00");
+        long epochMinute = stop.getEpochMinute();
+
+        stop.setTime("09:02:00");
+        assertEquals(epochMinute + 60, stop.getEpochMinute());
+
+        stop.setDate("2024-10-02");
+        assertEquals(epochMinute + 60 + TimeUnit.DAYS.toMinutes(1), stop.getEpochMinute());
+    }
+
+    @Test
+    public void invalidDateOrTimeIsUnknown() {
+        assertUnknown(new Stop());
+        assertUnknown(createStop("2024-10-01", null));
+        assertUnknown(createStop(null, "08:02:00"));
+        assertUnknown(createStop("2024-10-1", "08:02:00"));
+        assertUnknown(createStop("2024-10-01", "8:02"));
+        assertUnknown(createStop("2024-1x-01", "08:02:00"));
+        assertUnknown(createStop("2024-02-30", "08:02:00"));
+        assertUnknown(createStop("2024-10-01", "25:00:00"));
+    }
+
+    private static void assertUnknown(Stop stop) {
+        assertEquals(Stop.UNKNOWN_TIME, stop.getEpochMinute());
+        assertEquals(0, stop.getEpochMillis());
+        assertNull(stop.toLocalDateTime());
+    }
+
+    private static Stop createStop(String date, String time) {
+        Stop stop = new Stop();
+        stop.setDate(date);
+        stop.setTime(time);
+        return stop;
+    }
+
+}
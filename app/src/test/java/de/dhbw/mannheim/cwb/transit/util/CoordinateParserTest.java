@@ -0,0 +1,57 @@
+package de.dhbw.mannheim.cwb.transit.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CoordinateParserTest {
+
+    @Test
+    public void parsesCoordinates() {
+        CoordinateParser.Coordinate coordinate = new CoordinateParser.Coordinate();
+
+        assertTrue(CoordinateParser.parse("50.107149, 8.663785", coordinate));
+        assertEquals(50.107149, coordinate.getLatitude(), 0);
+        assertEquals(8.663785, coordinate.getLongitude(), 0);
+
+        assertTrue(CoordinateParser.parse("-33.8688,151", coordinate));
+        assertEquals(-33.8688, coordinate.getLatitude(), 0);
+        assertEquals(151, coordinate.getLongitude(), 0);
+    }
+
+    @Test
+    public void longNumbersAreParsedLikeParseDouble() {
+        CoordinateParser.Coordinate coordinate = new CoordinateParser.Coordinate();
+
+        String latitude = "49.4793541234567891234", longitude = "8.46981700000000000000000001";
+        assertTrue(CoordinateParser.parse(latitude + ", " + longitude, coordinate));
+        assertEquals(Double.parseDouble(latitude), coordinate.getLatitude(), 0);
+        assertEquals(Double.parseDouble(longitude), coordinate.getLongitude(), 0);
+    }
+
+    @Test
+    public void rejectsStopNames() {
+        assertFalse(CoordinateParser.isCoordinate(null));
+        assertFalse(CoordinateParser.isCoordinate(""));
+        assertFalse(CoordinateParser.isCoordinate("Mannheim Hauptbahnhof"));
+        assertFalse(CoordinateParser.isCoordinate("50.107149"));
+        assertFalse(CoordinateParser.isCoordinate("50.107149, "));
+        assertFalse(CoordinateParser.isCoordinate("50., 8.663785"));
+        assertFalse(CoordinateParser.isCoordinate("50.107149 , 8.663785"));
+        assertFalse(CoordinateParser.isCoordinate("50.107149, 8.663785 "));
+        assertFalse(CoordinateParser.isCoordinate("50.107149, 8.663785, 1"));
+    }
+
+    @Test
+    public void rejectedNameKeepsTheHolder() {
+        CoordinateParser.Coordinate coordinate = new CoordinateParser.Coordinate();
+        CoordinateParser.parse("1, 2", coordinate);
+
+        assertFalse(CoordinateParser.parse("3, x", coordinate));
+        assertEquals(1, coordinate.getLatitude(), 0);
+        assertEquals(2, coordinate.getLongitude(), 0);
+    }
+
+}
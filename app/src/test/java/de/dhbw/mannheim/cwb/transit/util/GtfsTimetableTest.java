@@ -0,0 +1,128 @@
+package de.dhbw.mannheim.cwb.transit.util;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Imports a feed of four stops and searches it with the Connection Scan Algorithm
+ */
+public class GtfsTimetableTest {
+
+    // a tuesday, the weekday trips don't run on the thursday after it
+    private static final LocalDate WORKDAY = LocalDate.of(2024, 10, 1);
+    private static final LocalDate HOLIDAY = LocalDate.of(2024, 10, 3);
+
+    private static final int[] NO_WALK = {0};
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private GtfsTimetable timetable;
+
+    @Before
+    public void importFeed() throws IOException {
+        File feed = folder.newFile("feed.zip");
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(feed))) {
+            write(zip, "stops.txt", "stop_id,stop_name,stop_lat,stop_lon",
+                    "A,Alpha,49.48,8.47", "B,Bravo,49.49,8.48", "C,Charlie,49.50,8.49", "D,Delta,49.51,8.50");
+            write(zip, "routes.txt", "route_id,route_short_name,route_long_name,route_type",
+                    "R1,1,,3", "R2,,Express,2");
+            write(zip, "calendar.txt", "service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,start_date,end_date",
+                    "WEEK,1,1,1,1,1,0,0,20240101,20241231", "DAILY,1,1,1,1,1,1,1,20240101,20241231");
+            write(zip, "calendar_dates.txt", "service_id,date,exception_type", "WEEK,20241003,2");
+            write(zip, "trips.txt", "route_id,service_id,trip_id",
+                    "R1,WEEK,T1", "R1,WEEK,T2", "R1,WEEK,T3", "R2,DAILY,T4");
+            write(zip, "stop_times.txt", "trip_id,arrival_time,departure_time,stop_id,stop_sequence",
+                    // A -> B -> C
+                    "T1,08:00:00,08:00:00,A,1", "T1,08:10:00,08:10:00,B,2", "T1,08:20:00,08:20:00,C,3",
+                    // B -> D, departs too early to change from T1
+                    "T2,08:11:00,08:11:00,B,1", "T2,08:25:00,08:25:00,D,2",
+                    // B -> D, reachable from T1
+                    "T3,08:15:00,08:15:00,B,1", "T3,08:30:00,08:30:00,D,2",
+                    // A -> D without a change, but slower
+                    "T4,08:05:00,08:05:00,A,1", "T4,08:40:00,08:40:00,D,2");
+        }
+
+        File target = new File(folder.getRoot(), "timetable.bin");
+        GtfsImporter.importFeed(feed, target);
+        timetable = GtfsTimetable.open(target);
+    }
+
+    @Test
+    public void readsStopsAndRoutes() {
+        int alpha = stop("A");
+        assertEquals("Alpha", timetable.getStopName(alpha));
+        assertEquals(49.48, timetable.getStopLat(alpha), 0);
+        assertArrayEquals(new int[]{alpha, stop("B")}, timetable.findStops(49.481, 8.471, 2000, 2));
+    }
+
+    @Test
+    public void earliestArrivalChangesTripsWithTransferTime() throws IOException {
+        GtfsTimetable.Journey journey = timetable.findEarliestArrival(timetable.getActiveServices(WORKDAY),
+                new int[]{stop("A")}, NO_WALK, new int[]{stop("D")}, NO_WALK, seconds("07:55"));
+
+        assertEquals(2, journey.enter.length);
+        assertEquals("1", timetable.getRouteName(timetable.getTrip(journey.enter[0])));
+        assertEquals(stop("B"), timetable.getArrivalStop(journey.exit[0]));
+        assertEquals(seconds("08:15"), timetable.getDepartureTime(journey.enter[1]));
+        assertEquals(seconds("08:00"), journey.departure);
+        assertEquals(seconds("08:30"), journey.arrival);
+    }
+
+    @Test
+    public void earliestArrivalSkipsRemovedServices() throws IOException {
+        GtfsTimetable.Journey journey = timetable.findEarliestArrival(timetable.getActiveServices(HOLIDAY),
+                new int[]{stop("A")}, NO_WALK, new int[]{stop("D")}, new int[]{300}, seconds("07:55"));
+
+        assertEquals(1, journey.enter.length);
+        assertEquals("Express", timetable.getRouteName(timetable.getTrip(journey.enter[0])));
+        assertEquals(seconds("08:45"), journey.arrival);
+    }
+
+    @Test
+    public void latestDepartureArrivesInTime() throws IOException {
+        GtfsTimetable.Journey journey = timetable.findLatestDeparture(timetable.getActiveServices(WORKDAY),
+                new int[]{stop("A")}, new int[]{60}, new int[]{stop("D")}, NO_WALK, seconds("08:35"));
+
+        assertEquals(2, journey.enter.length);
+        assertEquals(seconds("07:59"), journey.departure);
+        assertEquals(seconds("08:30"), journey.arrival);
+    }
+
+    @Test
+    public void unreachableTargetIsNull() throws IOException {
+        assertNull(timetable.findEarliestArrival(timetable.getActiveServices(WORKDAY),
+                new int[]{stop("C")}, NO_WALK, new int[]{stop("A")}, NO_WALK, 0));
+        assertNull(timetable.findLatestDeparture(timetable.getActiveServices(HOLIDAY),
+                new int[]{stop("A")}, NO_WALK, new int[]{stop("D")}, NO_WALK, seconds("08:35")));
+    }
+
+    private int stop(String id) {
+        for (int i = 0; ; i++) if (timetable.getStopId(i).equals(id)) return i;
+    }
+
+    private static int seconds(String time) {
+        return Integer.parseInt(time.substring(0, 2)) * 3600 + Integer.parseInt(time.substring(3, 5)) * 60;
+    }
+
+    private static void write(ZipOutputStream zip, String name, String... lines) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write((String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+}
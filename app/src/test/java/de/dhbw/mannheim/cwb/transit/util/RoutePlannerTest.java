@@ -0,0 +1,105 @@
+package de.dhbw.mannheim.cwb.transit.util;
+
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import com.squareup.okhttp.mockwebserver.SocketPolicy;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+import de.dhbw.mannheim.cwb.transit.pojo.Leg;
+import de.dhbw.mannheim.cwb.transit.pojo.TripData;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Pages through the trips of a recorded RMV response that is served by a local server
+ */
+public class RoutePlannerTest {
+
+    private MockWebServer server;
+
+    @Before
+    public void start() throws IOException {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void shutdown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void parsesTripsAndScrollContexts() throws IOException {
+        TripData tripData;
+        try (InputStream in = RoutePlannerTest.class.getResourceAsStream("/rmv/trip_1.json")) {
+            tripData = TripDataParser.parse(in);
+        }
+
+        assertEquals(2, tripData.getTrips().length);
+        Leg leg = tripData.getTrips()[0].getLeglist().getLegs()[0];
+        assertEquals("ICE 578", leg.getName());
+        assertEquals("Mannheim Hauptbahnhof", leg.getOrigin().getName());
+        assertEquals("4", leg.getOrigin().getTrack());
+        assertEquals(38, leg.getDestination().getEpochMinute() - leg.getOrigin().getEpochMinute());
+        assertNull(tripData.getTrips()[1].getLeglist().getLegs()[0].getOrigin().getTrack());
+
+        assertNotNull(tripData.getEarlierContext());
+        assertNotNull(tripData.getLaterContext());
+    }
+
+    @Test
+    public void requestsTheLaterTripsWithTheContextOfThePreviousPage() throws Exception {
+        server.enqueue(new MockResponse().setBody(fixture("trip_1.json")));
+        server.enqueue(new MockResponse().setBody(fixture("trip_2.json")));
+
+        RoutePlanner planner = new RoutePlanner();
+        String url = server.url("/trip").toString() + "?format=json";
+
+        TripData first = planner.doGetRequest(url, TransitHttpClient.get());
+        TripData later = planner.doGetRequest(url + "&context="
+                + URLEncoder.encode(first.getLaterContext(), "UTF-8"), TransitHttpClient.get());
+
+        assertNull(server.url(server.takeRequest().getPath()).queryParameter("context"));
+        RecordedRequest request = server.takeRequest();
+        assertEquals(first.getLaterContext(), server.url(request.getPath()).queryParameter("context"));
+
+        assertEquals(1, later.getTrips().length);
+        assertEquals("IC 2274", later.getTrips()[0].getLeglist().getLegs()[0].getName());
+        assertNotNull(later.getLaterContext());
+    }
+
+    @Test
+    public void failedRequestIsAnIOException() throws InterruptedException {
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START));
+
+        try {
+            new RoutePlanner().doGetRequest(server.url("/trip").toString(), TransitHttpClient.get());
+            fail("The request should have failed");
+        } catch (IOException expected) {
+            // the cause of the ExecutionException is passed on
+        }
+    }
+
+    private static String fixture(String name) throws IOException {
+        try (InputStream in = RoutePlannerTest.class.getResourceAsStream("/rmv/" + name)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1 << 12];
+            for (int read; (read = in.read(buffer)) != -1; ) out.write(buffer, 0, read);
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+}
@@ -0,0 +1,61 @@
+package de.dhbw.mannheim.cwb.transit.util;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import de.dhbw.mannheim.cwb.transit.pojo.Leg;
+import de.dhbw.mannheim.cwb.transit.pojo.Trip;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class TripCodecTest {
+
+    @Test
+    public void decodesEncodedTrips() throws IOException {
+        Trip[] trips;
+        try (InputStream in = TripCodecTest.class.getResourceAsStream("/rmv/trip_1.json")) {
+            trips = TripDataParser.parse(in).getTrips();
+        }
+
+        byte[] data = TripCodec.encode(trips);
+        assertEquals(TripCodec.FORMAT_SMILE, data[0]);
+
+        Trip[] decoded = TripCodec.decode(data);
+        assertEquals(trips.length, decoded.length);
+        for (int i = 0; i < trips.length; i++) {
+            Leg[] legs = trips[i].getLeglist().getLegs(), decodedLegs = decoded[i].getLeglist().getLegs();
+            assertEquals(legs.length, decodedLegs.length);
+            for (int j = 0; j < legs.length; j++) {
+                assertEquals(legs[j].getName(), decodedLegs[j].getName());
+                assertEquals(legs[j].getType(), decodedLegs[j].getType());
+                assertEquals(legs[j].getOrigin().getName(), decodedLegs[j].getOrigin().getName());
+                assertEquals(legs[j].getOrigin().getTrack(), decodedLegs[j].getOrigin().getTrack());
+                assertEquals(legs[j].getOrigin().getLat(), decodedLegs[j].getOrigin().getLat(), 0);
+                assertEquals(legs[j].getOrigin().getEpochMinute(), decodedLegs[j].getOrigin().getEpochMinute());
+                assertEquals(legs[j].getDestination().getEpochMinute(), decodedLegs[j].getDestination().getEpochMinute());
+            }
+        }
+    }
+
+    @Test
+    public void decodesMissingTrips() throws IOException {
+        assertNull(TripCodec.decode(TripCodec.encode(null)));
+    }
+
+    @Test
+    public void rejectsUnknownFormats() {
+        for (byte[] data : new byte[][]{{}, {0, 1, 2}, {'[', ']'}}) {
+            try {
+                TripCodec.decode(data);
+                fail("The format " + (data.length == 0 ? "" : data[0]) + " should be unknown");
+            } catch (IOException expected) {
+                // rows of an unknown format are not read
+            }
+        }
+    }
+
+}